@@ -6,7 +6,7 @@ set -e
 # Build using jlink
 rm -rf dist/mac
 $JAVA_HOME/bin/jlink \
-  --add-modules java.base,java.compiler,java.logging,java.sql,java.xml,jdk.compiler,jdk.jdi,jdk.unsupported,jdk.zipfs \
+  --add-modules java.base,java.compiler,java.logging,java.management,java.sql,java.xml,jdk.compiler,jdk.jdi,jdk.unsupported,jdk.zipfs \
   --output dist/mac \
   --no-header-files \
   --no-man-pages \
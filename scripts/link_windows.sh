@@ -11,7 +11,7 @@ JAVA_HOME="./jdks/windows/jdk-13"
 rm -rf dist/windows
 $REAL_JAVA_HOME/bin/jlink \
   --module-path $JAVA_HOME/jmods \
-  --add-modules java.base,java.compiler,java.logging,java.sql,java.xml,jdk.compiler,jdk.jdi,jdk.unsupported,jdk.zipfs \
+  --add-modules java.base,java.compiler,java.logging,java.management,java.sql,java.xml,jdk.compiler,jdk.jdi,jdk.unsupported,jdk.zipfs \
   --output dist/windows \
   --no-header-files \
   --no-man-pages \
@@ -2,9 +2,7 @@ package org.javacs;
 
 import java.nio.file.Path;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 
 /** Cache maps a file + an arbitrary key to a value. When the file is modified, the mapping expires. */
 class Cache<K, V> {
@@ -41,11 +39,39 @@ class Cache<K, V> {
 
     private final Map<Key, Value> map = new HashMap<>();
 
-    boolean has(Path file, K k) {
+    /** Every cache, so forget can reach all of them */
+    private static final Set<Cache<?, ?>> all = Collections.newSetFromMap(new WeakHashMap<>());
+
+    Cache() {
+        synchronized (all) {
+            all.add(this);
+        }
+    }
+
+    /**
+     * Remove every entry for files from every cache. Entries already expire when a file is modified, but after a
+     * batch of changes like a git checkout, this drops them all at once, including entries for deleted files.
+     */
+    static void forget(Collection<Path> files) {
+        var set = new HashSet<Path>(files);
+        List<Cache<?, ?>> caches;
+        synchronized (all) {
+            caches = new ArrayList<>(all);
+        }
+        for (var cache : caches) {
+            cache.removeAll(set);
+        }
+    }
+
+    private synchronized void removeAll(Set<Path> files) {
+        map.keySet().removeIf(key -> files.contains(key.file));
+    }
+
+    synchronized boolean has(Path file, K k) {
         return !needs(file, k);
     }
 
-    boolean needs(Path file, K k) {
+    synchronized boolean needs(Path file, K k) {
         // If key is not in map, it needs to be loaded
         var key = new Key<K>(file, k);
         if (!map.containsKey(key)) return true;
@@ -57,14 +83,14 @@ class Cache<K, V> {
         return value.created.isBefore(modified);
     }
 
-    void load(Path file, K k, V v) {
+    synchronized void load(Path file, K k, V v) {
         // TODO limit total size of cache
         var key = new Key<K>(file, k);
         var value = new Value(v);
         map.put(key, value);
     }
 
-    V get(Path file, K k) {
+    synchronized V get(Path file, K k) {
         var key = new Key<K>(file, k);
         if (!map.containsKey(key)) {
             throw new IllegalArgumentException(k + " is not in map " + map);
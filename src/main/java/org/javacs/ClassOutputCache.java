@@ -0,0 +1,434 @@
+package org.javacs;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.tools.*;
+
+/**
+ * ClassOutputCache keeps class files generated from workspace sources on disk, in one directory per source file. Javac
+ * can load unchanged dependencies from these class files instead of parsing their sources. Each directory is named by a
+ * key made of the source's contents and the saved versions of every package its package depends on, by import or by
+ * qualified name, directly or through other packages. So an edited file, or a file whose dependencies changed, simply
+ * misses until it is generated again, and the directories stay valid across restarts. Keys are worked out in the
+ * background by isStale, and requests only check that the packages they were made from haven't been saved since.
+ * Caches for different compiler options, like a different class path, are kept apart, and directories that haven't
+ * been used for a while are deleted.
+ */
+class ClassOutputCache {
+    /** Delete directories of class files that haven't been used for this long */
+    private static final Duration MAX_UNUSED = Duration.ofDays(30);
+
+    /** The caches for every set of compiler options */
+    private final Path root;
+    /** The cache for the options of this one */
+    private final Path dir;
+    private final ImportGraph imports;
+    /** Sources that failed to compile, and their key when they did */
+    private final Map<Path, String> failed = new HashMap<>();
+    /** Keys that are known to have a directory of class files, so we don't have to keep checking the disk */
+    private final Set<String> present = new HashSet<>();
+    /** The keys of sources that are being generated, which stay the same even if the sources change meanwhile */
+    private final Map<Path, String> generating = new HashMap<>();
+    /** Where javac is writing the class files of each source, until they're committed */
+    private final Map<Path, Path> tmpDirs = new HashMap<>();
+    private boolean evicted;
+
+    ClassOutputCache(Path root, Collection<String> options, ImportGraph imports) {
+        this.root = root;
+        this.dir = root.resolve(sha1(String.join(" ", options) + " " + Runtime.version()));
+        this.imports = imports;
+    }
+
+    /** The cache for options, in the user's cache directory, shared by all workspaces */
+    static ClassOutputCache inUserCache(Collection<String> options, ImportGraph imports) {
+        return new ClassOutputCache(UserCache.dir("classes"), options, imports);
+    }
+
+    /**
+     * Check if there are up-to-date class files for source. This is called while handling requests, so it only uses a
+     * key that isStale has already worked out, and is still current.
+     */
+    synchronized boolean has(Path source) {
+        var key = currentKey(source);
+        return key != null && hasClasses(key);
+    }
+
+    /** Check if source needs to be generated, and hasn't already failed to compile with its current key */
+    synchronized boolean isStale(Path source) {
+        var key = key(source);
+        return !hasClasses(key) && !key.equals(failed.get(source));
+    }
+
+    private boolean hasClasses(String key) {
+        if (present.contains(key)) return true;
+        var classes = dir.resolve(key);
+        if (!Files.isDirectory(classes)) return false;
+        present.add(key);
+        // Mark the directory as used, so evictUnused keeps it
+        try {
+            Files.setLastModifiedTime(classes, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't touch %s: %s", classes, e.getMessage()));
+        }
+        return true;
+    }
+
+    /**
+     * Delete the directories of class files in every cache that haven't been used for a while. Only does anything the
+     * first time it's called, and returns false after that.
+     */
+    synchronized boolean evictUnused() {
+        if (evicted) return false;
+        evicted = true;
+        if (!Files.isDirectory(root)) return true;
+        var started = System.currentTimeMillis();
+        var cutoff = Instant.now().minus(MAX_UNUSED);
+        var count = 0;
+        try (var caches = Files.list(root)) {
+            for (var cache : (Iterable<Path>) caches::iterator) {
+                if (!Files.isDirectory(cache)) continue;
+                // Deleting directories in cache makes it look modified, so check its time first
+                var unused = Files.getLastModifiedTime(cache).toInstant().isBefore(cutoff);
+                try (var classes = Files.list(cache)) {
+                    for (var c : (Iterable<Path>) classes::iterator) {
+                        if (Files.getLastModifiedTime(c).toInstant().isAfter(cutoff)) continue;
+                        deleteRecursively(c);
+                        count++;
+                    }
+                }
+                if (unused && isEmpty(cache)) {
+                    Files.delete(cache);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't evict unused class files from %s: %s", root, e.getMessage()));
+        }
+        var elapsed = System.currentTimeMillis() - started;
+        LOG.info(String.format("Deleted %d unused directories of class files from %s (%d ms)", count, root, elapsed));
+        return true;
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (var list = Files.list(dir)) {
+            return list.findAny().isEmpty();
+        }
+    }
+
+    /** The cached class files generated from source, which must be up-to-date */
+    synchronized List<JavaFileObject> classFiles(Path source) {
+        var list = new ArrayList<JavaFileObject>();
+        try (var files = Files.list(classesDir(source))) {
+            files.forEach(f -> list.add(new CachedClassFile(f)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    /** Where javac should write className, which it generated from source */
+    synchronized JavaFileObject output(Path source, String className) {
+        var tmp = tmpDir(source);
+        try {
+            Files.createDirectories(tmp);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new CachedClassFile(tmp.resolve(className + JavaFileObject.Kind.CLASS.extension));
+    }
+
+    /** Make the class files that javac wrote for source visible */
+    synchronized void commit(Path source) {
+        var tmp = tmpDir(source);
+        var target = dir.resolve(generatingKey(source));
+        generating.remove(source);
+        tmpDirs.remove(source);
+        try {
+            failed.remove(source);
+            // A file that declares no classes still gets a directory, so it isn't generated again
+            if (Files.exists(target)) {
+                deleteRecursively(tmp);
+            } else {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Remember that source doesn't compile, so we don't try again until it changes */
+    synchronized void fail(Path source) {
+        failed.put(source, generatingKey(source));
+        discard(source);
+    }
+
+    /** Forget any class files that javac wrote for source, because they may be incomplete */
+    synchronized void discard(Path source) {
+        var tmp = tmpDirs.remove(source);
+        try {
+            if (tmp != null) deleteRecursively(tmp);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        generating.remove(source);
+    }
+
+    private Path classesDir(Path source) {
+        var key = currentKey(source);
+        if (key == null) key = key(source);
+        return dir.resolve(key);
+    }
+
+    /** A new directory for the class files of source, so servers that generate the same source at once don't mix */
+    private Path tmpDir(Path source) {
+        return tmpDirs.computeIfAbsent(
+                source,
+                __ -> {
+                    try {
+                        Files.createDirectories(dir);
+                        return Files.createTempDirectory(dir, generatingKey(source) + "-");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
+    /** The key of source when javac started writing its class files */
+    private String generatingKey(Path source) {
+        return generating.computeIfAbsent(source, this::key);
+    }
+
+    private void deleteRecursively(Path tmp) throws IOException {
+        if (!Files.exists(tmp)) return;
+        try (var files = Files.walk(tmp)) {
+            var list = new ArrayList<Path>();
+            files.forEach(list::add);
+            Collections.reverse(list);
+            for (var f : list) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private final Cache<Void, String> cacheHash = new Cache<>();
+
+    private String hash(Path source) {
+        if (cacheHash.needs(source, null)) {
+            cacheHash.load(source, null, sha1(FileStore.contents(source)));
+        }
+        return cacheHash.get(source, null);
+    }
+
+    /** The key of one source, and the version of the source and the key of its dependencies it was made from */
+    private static class SourceKey {
+        final Instant modified;
+        final String dependencies, key;
+
+        SourceKey(Instant modified, String dependencies, String key) {
+            this.modified = modified;
+            this.dependencies = dependencies;
+            this.key = key;
+        }
+    }
+
+    /** The key of the dependencies of one package, and the versions of the packages it was made from */
+    private static class DependenciesKey {
+        final Map<String, Long> versions;
+        final String key;
+        /** FileStore.savedGeneration when versions were last found to be current */
+        long checked;
+
+        DependenciesKey(Map<String, Long> versions, String key, long checked) {
+            this.versions = versions;
+            this.key = key;
+            this.checked = checked;
+        }
+    }
+
+    /** The key of the saved files of one package, at one version of the package */
+    private static class PackageKey {
+        final long version;
+        final String key;
+
+        PackageKey(long version, String key) {
+            this.version = version;
+            this.key = key;
+        }
+    }
+
+    private final Map<Path, SourceKey> sourceKeys = new HashMap<>();
+    private final Map<String, DependenciesKey> dependenciesKeys = new HashMap<>();
+    private final Map<String, PackageKey> packageKeys = new HashMap<>();
+
+    /** The key of source, if it has been worked out and nothing it was made from has changed since, or null */
+    private String currentKey(Path source) {
+        var found = sourceKeys.get(source);
+        if (found == null || !found.modified.equals(FileStore.modified(source))) return null;
+        var dependencies = currentDependenciesKey(FileStore.packageName(source));
+        if (dependencies == null || !dependencies.equals(found.dependencies)) return null;
+        return found.key;
+    }
+
+    /** The key of the dependencies of packageName, if none of them has been saved since it was worked out, or null */
+    private String currentDependenciesKey(String packageName) {
+        var found = dependenciesKeys.get(packageName);
+        if (found == null) return null;
+        // Edits to open documents don't change savedGeneration, so while the user types this is one comparison
+        var saved = FileStore.savedGeneration();
+        if (found.checked != saved) {
+            for (var p : found.versions.keySet()) {
+                if (FileStore.packageVersion(p) != found.versions.get(p)) return null;
+            }
+            found.checked = saved;
+        }
+        return found.key;
+    }
+
+    /** The contents of source, and the key of its package's dependencies */
+    private String key(Path source) {
+        var current = currentKey(source);
+        if (current != null) return current;
+        var modified = FileStore.modified(source);
+        var dependencies = dependenciesKey(FileStore.packageName(source));
+        var key = sha1(hash(source) + " " + dependencies);
+        sourceKeys.put(source, new SourceKey(modified, dependencies, key));
+        return key;
+    }
+
+    /** The saved versions of packageName and every package it depends on */
+    private String dependenciesKey(String packageName) {
+        var current = currentDependenciesKey(packageName);
+        if (current != null) return current;
+        var checked = FileStore.savedGeneration();
+        var versions = dependencies(packageName);
+        var text = new StringBuilder();
+        for (var p : versions.keySet()) {
+            text.append(' ').append(packageKey(p, versions.get(p)));
+        }
+        var key = sha1(text.toString());
+        dependenciesKeys.put(packageName, new DependenciesKey(versions, key, checked));
+        return key;
+    }
+
+    /**
+     * packageName and the packages it depends on, directly or through other packages, with their versions. Versions are
+     * read before the files they describe, so a change while this runs makes the result look out of date.
+     */
+    private Map<String, Long> dependencies(String packageName) {
+        var versions = new TreeMap<String, Long>();
+        versions.put(packageName, FileStore.packageVersion(packageName));
+        var todo = new ArrayDeque<String>();
+        todo.add(packageName);
+        while (!todo.isEmpty()) {
+            for (var f : FileStore.list(todo.remove())) {
+                for (var p : dependencies(f)) {
+                    if (versions.containsKey(p)) continue;
+                    versions.put(p, FileStore.packageVersion(p));
+                    todo.add(p);
+                }
+            }
+        }
+        return versions;
+    }
+
+    /** A qualified name like a.b.C, or a.b.C.D, where group 1 is the package a.b */
+    private static final Pattern QUALIFIED_NAME =
+            Pattern.compile("(?<![\\w$.])([a-z_][\\w$]*(?:\\.[a-z_][\\w$]*)*)\\.[A-Z]");
+
+    private final Cache<Void, Set<String>> cacheDependencies = new Cache<>();
+
+    /**
+     * The packages that file imports from or refers to by a qualified name. Words that only look like qualified names,
+     * like a field access this.x.Y, add packages that don't exist, which never change.
+     */
+    private Set<String> dependencies(Path file) {
+        if (cacheDependencies.needs(file, null)) {
+            var found = new HashSet<String>(imports.packages(file));
+            var matcher = QUALIFIED_NAME.matcher(FileStore.contents(file));
+            while (matcher.find()) {
+                found.add(matcher.group(1));
+            }
+            cacheDependencies.load(file, null, found);
+        }
+        return cacheDependencies.get(file, null);
+    }
+
+    /** The names and modified times of the saved sources in packageName, which was at version when they were read */
+    private String packageKey(String packageName, long version) {
+        var found = packageKeys.get(packageName);
+        if (found != null && found.version == version) return found.key;
+        var files = new ArrayList<Path>(FileStore.list(packageName));
+        files.sort(null);
+        var text = new StringBuilder(packageName);
+        for (var f : files) {
+            text.append('\n').append(f).append(' ').append(FileStore.modifiedOnDisk(f).toEpochMilli());
+        }
+        var key = sha1(text.toString());
+        packageKeys.put(packageName, new PackageKey(version, key));
+        return key;
+    }
+
+    static String sha1(String contents) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest(contents.getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (var b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** A class file in the cache, named by its binary name */
+    static class CachedClassFile extends SimpleJavaFileObject {
+        final Path path;
+
+        CachedClassFile(Path path) {
+            super(path.toUri(), Kind.CLASS);
+            this.path = path;
+        }
+
+        String binaryName() {
+            var name = path.getFileName().toString();
+            return name.substring(0, name.length() - Kind.CLASS.extension.length());
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        public OutputStream openOutputStream() throws IOException {
+            return Files.newOutputStream(path);
+        }
+
+        @Override
+        public long getLastModified() {
+            return path.toFile().lastModified();
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, Kind kind) {
+            return kind == Kind.CLASS && binaryName().endsWith(simpleName) && isSimpleName(simpleName);
+        }
+
+        private boolean isSimpleName(String simpleName) {
+            var name = binaryName();
+            var start = name.length() - simpleName.length();
+            return start == 0 || name.charAt(start - 1) == '.';
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -6,103 +6,193 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.*;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.lang.model.util.*;
 import javax.tools.*;
+import org.javacs.completion.PruneMethodBodies;
 
 class CompileBatch implements AutoCloseable {
     static final int MAX_COMPLETION_ITEMS = 50;
 
     final JavaCompilerService parent;
     final ReusableCompiler.Borrow borrow;
-    /** Indicates the task that requested the compilation is finished with it. */
-    boolean closed;
+    /** How many times this batch has been opened and not closed yet, starting with the request that compiled it. */
+    private int users = 1;
+    /** Indicates the batch has been dropped from the cache, so its compiler can be reused once it is closed. */
+    private boolean evicted;
+    /** The thread that is using this batch, if users > 0. Javac isn't thread-safe. */
+    private Thread user = Thread.currentThread();
 
     final JavacTask task;
     final Trees trees;
     final Elements elements;
     final Types types;
     final List<CompilationUnitTree> roots;
+    /** Diagnostics reported while compiling this batch */
+    final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+    /**
+     * Indicates the roots had so many parse errors that they were compiled with all method bodies erased, except the
+     * one around the last edit, and without lint. Every parse error is reported, but other diagnostics and trees
+     * outside that method are missing.
+     */
+    final boolean partial;
+    /** How much of the javac pipeline ran on the roots */
+    final CompileProfile profile;
+
+    /** If the roots have at least this many parse errors, and allowPartial is set, compile them in partial mode */
+    static final int MANY_ERRORS = 10;
 
-    CompileBatch(JavaCompilerService parent, Collection<? extends JavaFileObject> files) {
+    CompileBatch(
+            JavaCompilerService parent,
+            Collection<? extends JavaFileObject> files,
+            CompileProfile profile,
+            boolean allowPartial) {
         this.parent = parent;
-        this.borrow = batchTask(parent, files);
-        this.task = borrow.task;
-        this.trees = Trees.instance(borrow.task);
-        this.elements = borrow.task.getElements();
-        this.types = borrow.task.getTypes();
-        this.roots = new ArrayList<>();
-        // Compile all roots
+        this.profile = profile;
+        var parseErrors = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+        var borrow = batchTask(parent, diagnostics, files, profile, false);
         try {
-            for (var t : borrow.task.parse()) {
-                roots.add(t);
+            var roots = parse(borrow);
+            var errors = countErrors();
+            this.partial = allowPartial && errors >= MANY_ERRORS;
+            if (partial) {
+                LOG.info(String.format("...%d parse errors, compile again with erased method bodies", errors));
+                var pruned = pruneAroundLastEdit(borrow.task, roots);
+                borrow.close();
+                parseErrors.addAll(diagnostics);
+                diagnostics.clear();
+                borrow = batchTask(parent, diagnostics, pruned, profile, true);
+                roots = parse(borrow);
             }
+            this.borrow = borrow;
+            this.task = borrow.task;
+            this.trees = Trees.instance(borrow.task);
+            this.elements = borrow.task.getElements();
+            this.types = borrow.task.getTypes();
+            this.roots = roots;
             // The results of borrow.task.analyze() are unreliable when errors are present
             // You can get at `Element` values using `Trees`
             borrow.task.analyze();
         } catch (IOException e) {
+            borrow.close();
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            // Javac crashed, or idle work was cancelled, so nobody will close this batch
+            borrow.close();
+            throw e;
         }
-    }
-
-    /**
-     * If the compilation failed because javac didn't find some package-private files in source files with different
-     * names, list those source files.
-     */
-    Set<Path> needsAdditionalSources() {
-        // Check for "class not found errors" that refer to package private classes
-        var addFiles = new HashSet<Path>();
-        for (var err : parent.diags) {
-            if (!err.getCode().equals("compiler.err.cant.resolve.location")) continue;
-            if (!isValidFileRange(err)) continue;
-            var className = errorText(err);
-            var packageName = packageName(err);
-            var location = findPackagePrivateClass(packageName, className);
-            if (location != FILE_NOT_FOUND) {
-                addFiles.add(location);
+        // The second pass of a partial compile only sees the parse errors in the method it kept, so report the first
+        // pass's parse errors, and only the diagnostics of the second pass that the first pass didn't report
+        if (!parseErrors.isEmpty()) {
+            var reported = new HashSet<String>();
+            for (var d : parseErrors) {
+                reported.add(describe(d));
             }
+            diagnostics.removeIf(d -> reported.contains(describe(d)));
+            diagnostics.addAll(0, parseErrors);
         }
-        return addFiles;
     }
 
-    private String errorText(javax.tools.Diagnostic<? extends javax.tools.JavaFileObject> err) {
-        var file = Paths.get(err.getSource().toUri());
-        var contents = FileStore.contents(file);
-        var begin = (int) err.getStartPosition();
-        var end = (int) err.getEndPosition();
-        return contents.substring(begin, end);
+    /** Where d is and what kind it is, which is the same for both passes of a partial compile */
+    private static String describe(Diagnostic<? extends JavaFileObject> d) {
+        var source = d.getSource() == null ? "" : d.getSource().toUri().toString();
+        return source + ":" + d.getStartPosition() + ":" + d.getCode();
     }
 
-    private String packageName(javax.tools.Diagnostic<? extends javax.tools.JavaFileObject> err) {
-        var file = Paths.get(err.getSource().toUri());
-        return FileStore.packageName(file);
+    private static List<CompilationUnitTree> parse(ReusableCompiler.Borrow borrow) {
+        var roots = new ArrayList<CompilationUnitTree>();
+        try {
+            for (var t : borrow.task.parse()) {
+                roots.add(t);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return roots;
     }
 
-    private static final Path FILE_NOT_FOUND = Paths.get("");
+    private int countErrors() {
+        var count = 0;
+        for (var d : diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.ERROR) {
+                count++;
+            }
+        }
+        return count;
+    }
 
-    private Path findPackagePrivateClass(String packageName, String className) {
-        for (var file : FileStore.list(packageName)) {
-            var parse = Parser.parseFile(file);
-            for (var candidate : parse.packagePrivateClasses()) {
-                if (candidate.contentEquals(className)) {
-                    return file;
-                }
+    /** Erase all method bodies in roots except the one that contains the last edit, keeping offsets the same */
+    private static List<JavaFileObject> pruneAroundLastEdit(JavacTask task, List<CompilationUnitTree> roots) {
+        var pruned = new ArrayList<JavaFileObject>();
+        for (var root : roots) {
+            var source = root.getSourceFile();
+            if (!source.toUri().getScheme().equals("file")) {
+                pruned.add(source);
+                continue;
             }
+            var file = Paths.get(source.toUri());
+            var contents = new PruneMethodBodies(task).scan(root, FileStore.lastEdit(file)).toString();
+            var modified = Instant.ofEpochMilli(source.getLastModified());
+            pruned.add(new SourceFileObject(file, contents, modified));
+        }
+        return pruned;
+    }
+
+    /**
+     * Try to start using this batch again. Fails if another thread is still using it. Nested users in the same thread
+     * share the batch, and it stays open until all of them have closed it.
+     */
+    synchronized boolean reopen() {
+        if (users > 0 && user != Thread.currentThread()) {
+            return false;
         }
-        return FILE_NOT_FOUND;
+        users++;
+        user = Thread.currentThread();
+        return true;
+    }
+
+    synchronized boolean isUnused() {
+        return users == 0;
     }
 
     @Override
-    public void close() {
-        closed = true;
+    public synchronized void close() {
+        if (users == 0) return;
+        users--;
+        releaseIfUnused();
+    }
+
+    /** Drop this batch from the cache. The compiler is returned to the pool as soon as the batch is closed. */
+    synchronized void evict() {
+        evicted = true;
+        releaseIfUnused();
+    }
+
+    private void releaseIfUnused() {
+        if (users == 0 && evicted) {
+            borrow.close();
+        }
     }
 
     private static ReusableCompiler.Borrow batchTask(
-            JavaCompilerService parent, Collection<? extends JavaFileObject> sources) {
-        parent.diags.clear();
+            JavaCompilerService parent,
+            List<Diagnostic<? extends JavaFileObject>> diagnostics,
+            Collection<? extends JavaFileObject> sources,
+            CompileProfile profile,
+            boolean partial) {
         var options = options(parent.classPath, parent.addExports);
-        return parent.compiler.getTask(parent.fileManager, parent.diags::add, options, List.of(), sources);
+        if (partial) {
+            options = partialOptions(parent.classPath, parent.addExports);
+        } else if (profile == CompileProfile.ATTRIBUTE) {
+            options = attributeOptions(parent.classPath, parent.addExports);
+        }
+        var borrow = parent.compiler.getTask(parent::newFileManager, diagnostics::add, options, List.of(), sources);
+        ((SourceFileManager) borrow.fileManager).setBatchRoots(sources);
+        if (parent.idleListener != null) borrow.task.addTaskListener(parent.idleListener);
+        return borrow;
     }
 
     /** Combine source path or class path entries using the system separator, for example ':' in unix */
@@ -110,7 +200,7 @@ class CompileBatch implements AutoCloseable {
         return classOrSourcePath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator));
     }
 
-    private static List<String> options(Set<Path> classPath, Set<String> addExports) {
+    static List<String> options(Set<Path> classPath, Set<String> addExports) {
         var list = new ArrayList<String>();
 
         Collections.addAll(list, "-classpath", joinPath(classPath));
@@ -139,7 +229,31 @@ class CompileBatch implements AutoCloseable {
         return list;
     }
 
-    private boolean isValidFileRange(javax.tools.Diagnostic<? extends JavaFileObject> d) {
-        return d.getSource().toUri().getScheme().equals("file") && d.getStartPosition() >= 0 && d.getEndPosition() >= 0;
+    /** Options for compiling files with lots of errors, which skip lint and stop reporting errors early */
+    private static List<String> partialOptions(Set<Path> classPath, Set<String> addExports) {
+        var list = withoutLint(options(classPath, addExports));
+        Collections.addAll(list, "-Xmaxerrs", Integer.toString(MAX_PARTIAL_ERRORS));
+        return list;
+    }
+
+    /** Options for CompileProfile.ATTRIBUTE, which skip lint and stop javac after attribution */
+    private static List<String> attributeOptions(Set<Path> classPath, Set<String> addExports) {
+        var list = withoutLint(options(classPath, addExports));
+        Collections.addAll(list, "-XDshould-stop.ifError=ATTR", "-XDshould-stop.ifNoError=ATTR");
+        return list;
     }
+
+    private static List<String> withoutLint(List<String> options) {
+        var list = new ArrayList<String>();
+        for (var option : options) {
+            if (!option.startsWith("-Xlint:")) {
+                list.add(option);
+            }
+        }
+        return list;
+    }
+
+    private static final int MAX_PARTIAL_ERRORS = 20;
+
+    private static final Logger LOG = Logger.getLogger("main");
 }
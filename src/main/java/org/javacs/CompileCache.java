@@ -0,0 +1,191 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+import javax.tools.JavaFileObject;
+
+/**
+ * CompileCache keeps the most recently used compile batches, keyed by the set of source files in the batch. Each key
+ * has a slot with its own hit/miss counters. A slot misses when any of its sources has been modified since it was
+ * compiled. Least-recently-used batches are evicted when there are more than maxEntries, or when their estimated heap
+ * usage exceeds maxBytes. CompileCache is thread-safe, but a batch is only handed to one thread at a time.
+ */
+class CompileCache {
+    /** Rough number of bytes of heap retained by an attributed batch, per character of source in its roots. */
+    private static final long BYTES_PER_SOURCE_CHAR = 100;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    /** Slots in least-recently-used order */
+    private final LinkedHashMap<Set<JavaFileObject>, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int nextSlotId = 1;
+
+    private static class Slot {
+        final int id;
+        CompileBatch batch;
+        Map<JavaFileObject, Long> modified = Map.of();
+        long estimatedBytes;
+        int hits, misses;
+
+        Slot(int id) {
+            this.id = id;
+        }
+    }
+
+    CompileCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Look up an up-to-date batch that compiled exactly sources with at least profile and reopen it, or return null if
+     * there isn't one or it is in use by another thread.
+     */
+    synchronized CompileBatch get(Collection<? extends JavaFileObject> sources, CompileProfile profile) {
+        var slot = slots.get(Set.<JavaFileObject>copyOf(sources));
+        if (slot == null) return null;
+        if (!slot.batch.profile.covers(profile)) {
+            slot.misses++;
+            var message = "...slot %d misses because it was compiled with %s, not %s %s";
+            LOG.info(String.format(message, slot.id, slot.batch.profile, profile, stats(slot)));
+            return null;
+        }
+        var changed = changedSource(slot, sources);
+        if (changed != null) {
+            slot.misses++;
+            LOG.info(String.format("...slot %d misses because %s changed %s", slot.id, changed.getName(), stats(slot)));
+            return null;
+        }
+        if (!slot.batch.reopen()) {
+            slot.misses++;
+            LOG.info(String.format("...slot %d misses because it is in use %s", slot.id, stats(slot)));
+            return null;
+        }
+        slot.hits++;
+        LOG.info(String.format("...using cached compile from slot %d %s", slot.id, stats(slot)));
+        return slot.batch;
+    }
+
+    /** Check if there is an up-to-date batch that compiled exactly sources with at least profile, in use or not. */
+    synchronized boolean has(Collection<? extends JavaFileObject> sources, CompileProfile profile) {
+        var slot = slots.get(Set.<JavaFileObject>copyOf(sources));
+        return slot != null && slot.batch.profile.covers(profile) && changedSource(slot, sources) == null;
+    }
+
+    /** Remember batch as the most recent compilation of sources, evicting older batches if the cache is full. */
+    synchronized void put(Collection<? extends JavaFileObject> sources, CompileBatch batch) {
+        var key = Set.<JavaFileObject>copyOf(sources);
+        var slot = slots.get(key);
+        if (slot == null) {
+            slot = new Slot(nextSlotId++);
+            slot.misses++;
+            slots.put(key, slot);
+            LOG.info(String.format("...created slot %d %s", slot.id, stats(slot)));
+        } else if (slot.batch != batch) {
+            slot.batch.evict();
+        }
+        slot.batch = batch;
+        slot.modified = modified(sources);
+        slot.estimatedBytes = estimateBytes(batch);
+        evictOldest();
+    }
+
+    /** Evict the least-recently-used batch that is not in use, so its compiler can be reused. */
+    synchronized boolean evictIdle() {
+        var it = slots.values().iterator();
+        while (it.hasNext()) {
+            var slot = it.next();
+            if (!slot.batch.isUnused()) continue;
+            LOG.info(String.format("...evict slot %d to free its compiler %s", slot.id, stats(slot)));
+            slot.batch.evict();
+            it.remove();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evict every batch that compiled any of files, because they changed outside the editor. Batches that are in use
+     * are released when their last user closes them.
+     */
+    synchronized void evictChanged(Set<Path> files) {
+        var it = slots.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            if (!compiledAny(entry.getKey(), files)) continue;
+            var slot = entry.getValue();
+            LOG.info(String.format("...evict slot %d because its sources changed %s", slot.id, stats(slot)));
+            slot.batch.evict();
+            it.remove();
+        }
+    }
+
+    private boolean compiledAny(Set<JavaFileObject> sources, Set<Path> files) {
+        for (var f : sources) {
+            var uri = f.toUri();
+            if (uri.getScheme().equals("file") && files.contains(Paths.get(uri))) return true;
+        }
+        return false;
+    }
+
+    private JavaFileObject changedSource(Slot slot, Collection<? extends JavaFileObject> sources) {
+        for (var f : sources) {
+            var modified = slot.modified.get(f);
+            if (modified == null || modified != f.getLastModified()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private Map<JavaFileObject, Long> modified(Collection<? extends JavaFileObject> sources) {
+        var modified = new HashMap<JavaFileObject, Long>();
+        for (var f : sources) {
+            modified.put(f, f.getLastModified());
+        }
+        return modified;
+    }
+
+    private long estimateBytes(CompileBatch batch) {
+        long chars = 0;
+        for (var root : batch.roots) {
+            try {
+                chars += root.getSourceFile().getCharContent(true).length();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return chars * BYTES_PER_SOURCE_CHAR;
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (var slot : slots.values()) {
+            total += slot.estimatedBytes;
+        }
+        return total;
+    }
+
+    private void evictOldest() {
+        var it = slots.values().iterator();
+        // Always keep the most-recently-used batch, even if it is larger than maxBytes
+        while (slots.size() > 1 && (slots.size() > maxEntries || totalBytes() > maxBytes) && it.hasNext()) {
+            var slot = it.next();
+            // Batches that are still in use will be evicted later
+            if (!slot.batch.isUnused()) continue;
+            LOG.info(String.format("...evict slot %d (~%,d KB) %s", slot.id, slot.estimatedBytes / 1024, stats(slot)));
+            slot.batch.evict();
+            it.remove();
+        }
+    }
+
+    private String stats(Slot slot) {
+        return String.format("[%d hits, %d misses]", slot.hits, slot.misses);
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
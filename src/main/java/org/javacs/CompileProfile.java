@@ -0,0 +1,14 @@
+package org.javacs;
+
+/** How much of the javac pipeline a compile runs, depending on what the caller needs */
+public enum CompileProfile {
+    /** Resolve names and types, but skip flow analysis and lint. Enough for hover, goto-definition and signatures. */
+    ATTRIBUTE,
+    /** Run attribution, flow analysis and lint, for features that report errors or rewrite code. */
+    FULL;
+
+    /** Check if a batch compiled with this profile has everything that a request for other needs */
+    boolean covers(CompileProfile other) {
+        return compareTo(other) >= 0;
+    }
+}
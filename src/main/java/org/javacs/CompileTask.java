@@ -11,6 +11,8 @@ public class CompileTask implements AutoCloseable {
     public final JavacTask task;
     public final List<CompilationUnitTree> roots;
     public final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    /** If set, roots had too many errors to compile fully, and most method bodies are missing. See CompileBatch. */
+    public final boolean partial;
     private final Runnable close;
 
     public CompilationUnitTree root() {
@@ -42,10 +44,12 @@ public class CompileTask implements AutoCloseable {
             JavacTask task,
             List<CompilationUnitTree> roots,
             List<Diagnostic<? extends JavaFileObject>> diagnostics,
+            boolean partial,
             Runnable close) {
         this.task = task;
         this.roots = roots;
         this.diagnostics = diagnostics;
+        this.partial = partial;
         this.close = close;
     }
 
@@ -0,0 +1,61 @@
+package org.javacs;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * CompileTimer charges the time javac spends in each phase to the file it is working on, and adds it to CompileTimings.
+ * Phases nest, for example javac parses a dependency while it analyzes a root, so time is only charged to the innermost
+ * phase. When javac enters several roots at once, the time is charged to the last of them.
+ */
+class CompileTimer implements TaskListener {
+    /** Phases that have started and not finished yet, innermost last */
+    private final List<TaskEvent> active = new ArrayList<>();
+
+    private long lastEvent = System.nanoTime();
+
+    @Override
+    public void started(TaskEvent e) {
+        if (!isTimed(e.getKind())) return;
+        charge();
+        active.add(e);
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (!isTimed(e.getKind())) return;
+        charge();
+        for (var i = active.size() - 1; i >= 0; i--) {
+            var a = active.get(i);
+            if (a.getKind() == e.getKind() && Objects.equals(a.getSourceFile(), e.getSourceFile())) {
+                active.remove(i);
+                break;
+            }
+        }
+    }
+
+    private boolean isTimed(TaskEvent.Kind kind) {
+        switch (kind) {
+            case PARSE:
+            case ENTER:
+            case ANALYZE:
+            case GENERATE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void charge() {
+        var now = System.nanoTime();
+        if (!active.isEmpty()) {
+            var innermost = active.get(active.size() - 1);
+            var file = innermost.getSourceFile() == null ? "" : innermost.getSourceFile().getName();
+            CompileTimings.add(file, innermost.getKind(), now - lastEvent);
+        }
+        lastEvent = now;
+    }
+}
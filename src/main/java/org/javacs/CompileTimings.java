@@ -0,0 +1,97 @@
+package org.javacs;
+
+import static org.javacs.JsonHelper.GSON;
+
+import com.sun.source.util.TaskEvent;
+import java.util.*;
+import java.util.logging.Logger;
+import org.javacs.lsp.JavaCompileTimings;
+
+/**
+ * CompileTimings adds up the time javac spends in each phase, for each file, while the server handles one request.
+ * Timings are kept per thread, because each thread handles one request at a time. Compiles outside a request are not
+ * timed.
+ */
+class CompileTimings {
+    private static final ThreadLocal<CompileTimings> current = new ThreadLocal<>();
+    /** Recent requests that compiled something, newest first */
+    private static final Deque<JavaCompileTimings> recent = new ArrayDeque<>();
+
+    private static final int MAX_RECENT = 20, MAX_FILES = 10;
+
+    private final String method;
+    private final Map<String, EnumMap<TaskEvent.Kind, Long>> nanos = new HashMap<>();
+
+    private CompileTimings(String method) {
+        this.method = method;
+    }
+
+    /** Start timing the compiles for a request on this thread */
+    static void start(String method) {
+        current.set(new CompileTimings(method));
+    }
+
+    /** Stop timing the request on this thread, and log and remember its timings if it compiled anything */
+    static void finish() {
+        var timings = current.get();
+        current.remove();
+        if (timings == null || timings.nanos.isEmpty()) return;
+        var report = timings.report();
+        LOG.info("Compile timings " + GSON.toJson(report));
+        synchronized (recent) {
+            recent.addFirst(report);
+            while (recent.size() > MAX_RECENT) {
+                recent.removeLast();
+            }
+        }
+    }
+
+    static void add(String file, TaskEvent.Kind phase, long elapsedNanos) {
+        var timings = current.get();
+        if (timings == null) return;
+        var phases = timings.nanos.computeIfAbsent(file, __ -> new EnumMap<>(TaskEvent.Kind.class));
+        phases.merge(phase, elapsedNanos, Long::sum);
+    }
+
+    /** Timings of recent requests that compiled something, newest first */
+    static List<JavaCompileTimings> recent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    private JavaCompileTimings report() {
+        var report = new JavaCompileTimings();
+        report.method = method;
+        var total = new EnumMap<TaskEvent.Kind, Long>(TaskEvent.Kind.class);
+        var files = new ArrayList<JavaCompileTimings.FileTimings>();
+        for (var file : nanos.keySet()) {
+            var phases = nanos.get(file);
+            var f = new JavaCompileTimings.FileTimings();
+            f.file = file;
+            for (var phase : phases.keySet()) {
+                var elapsed = phases.get(phase);
+                total.merge(phase, elapsed, Long::sum);
+                f.phaseMs.put(phase.name(), millis(elapsed));
+                f.totalMs += elapsed;
+            }
+            f.totalMs = millis(f.totalMs);
+            files.add(f);
+        }
+        for (var phase : total.keySet()) {
+            var elapsed = total.get(phase);
+            report.phaseMs.put(phase.name(), millis(elapsed));
+            report.totalMs += elapsed;
+        }
+        report.totalMs = millis(report.totalMs);
+        files.sort((a, b) -> Long.compare(b.totalMs, a.totalMs));
+        report.files = files.subList(0, Math.min(files.size(), MAX_FILES));
+        return report;
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -11,6 +11,9 @@ import javax.tools.JavaFileObject;
 public interface CompilerProvider {
     Set<String> imports();
 
+    /** The number of workspace sources that import qualifiedName, which is a class or a package ending in .* */
+    int countImporters(String qualifiedName);
+
     List<String> publicTopLevelTypes();
 
     List<String> packagePrivateTopLevelTypes(String packageName);
@@ -33,5 +36,16 @@ public interface CompilerProvider {
 
     CompileTask compile(Collection<? extends JavaFileObject> sources);
 
+    /** Compile files, running only as much of javac as profile needs */
+    CompileTask compile(CompileProfile profile, Path... files);
+
+    CompileTask compile(CompileProfile profile, Collection<? extends JavaFileObject> sources);
+
+    /**
+     * Compile files to report their errors. If they have many parse errors, they may be compiled partially, see
+     * CompileTask.partial.
+     */
+    CompileTask compileForErrors(Path... files);
+
     Path NOT_FOUND = Paths.get("");
 }
@@ -0,0 +1,109 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ContentCache keeps the text of recently read files that aren't open in the editor, up to a total number of chars.
+ * An entry is used as long as the file has the same modified time and size as when it was read. Checking that costs a
+ * stat, so during one request each file is only checked once; after startRequest, the next read checks again.
+ */
+class ContentCache {
+    /** Files at least this big are read through a memory mapping, instead of copying them into a heap buffer first */
+    private static final long MAP_BYTES = 256 * 1024;
+    /** Windows won't let anyone else write a file while it's mapped, and the mapping lasts until it's collected */
+    private static final boolean CAN_MAP = !System.getProperty("os.name").toLowerCase().startsWith("windows");
+
+    private final long maxChars;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars;
+    private int request;
+
+    private static class Entry {
+        final String text;
+        final FileTime modified;
+        final long size;
+        /** The last request that checked this entry against the disk */
+        int checked;
+
+        Entry(String text, FileTime modified, long size, int checked) {
+            this.text = text;
+            this.modified = modified;
+            this.size = size;
+            this.checked = checked;
+        }
+    }
+
+    ContentCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /** Check files against the disk again the next time they're read */
+    synchronized void startRequest() {
+        request++;
+    }
+
+    /** The text of file, from the cache if it hasn't changed since it was read */
+    String get(Path file) throws IOException {
+        int request;
+        synchronized (this) {
+            request = this.request;
+            var entry = entries.get(file);
+            if (entry != null && entry.checked == request) return entry.text;
+        }
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (this) {
+            var entry = entries.get(file);
+            if (entry != null && entry.modified.equals(attrs.lastModifiedTime()) && entry.size == attrs.size()) {
+                entry.checked = request;
+                return entry.text;
+            }
+        }
+        var text = read(file, attrs.size());
+        synchronized (this) {
+            put(file, new Entry(text, attrs.lastModifiedTime(), attrs.size(), request));
+        }
+        return text;
+    }
+
+    /** The text of file if it's in the cache and hasn't been changed during this request, or null */
+    synchronized String peek(Path file) {
+        var entry = entries.get(file);
+        if (entry == null || entry.checked != request) return null;
+        return entry.text;
+    }
+
+    synchronized void invalidate(Path file) {
+        var entry = entries.remove(file);
+        if (entry != null) totalChars -= entry.text.length();
+    }
+
+    private void put(Path file, Entry entry) {
+        invalidate(file);
+        // A file bigger than the whole cache would only evict everything else
+        if (entry.text.length() > maxChars) return;
+        entries.put(file, entry);
+        totalChars += entry.text.length();
+        var it = entries.values().iterator();
+        while (totalChars > maxChars && it.hasNext()) {
+            totalChars -= it.next().text.length();
+            it.remove();
+        }
+    }
+
+    private static String read(Path file, long size) throws IOException {
+        if (!CAN_MAP || size < MAP_BYTES || size > Integer.MAX_VALUE) {
+            return Files.readString(file);
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.newDecoder().decode(bytes).toString();
+        }
+    }
+}
@@ -2,51 +2,123 @@ package org.javacs;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.lang.model.element.TypeElement;
 import org.javacs.lsp.DidChangeTextDocumentParams;
 import org.javacs.lsp.DidCloseTextDocumentParams;
 import org.javacs.lsp.DidOpenTextDocumentParams;
-import org.javacs.lsp.TextDocumentContentChangeEvent;
+import org.javacs.lsp.JavaReportProgressParams;
 
+/**
+ * FileStore is safe to use from any thread. Methods that change it are synchronized, so changes happen one at a time.
+ * Methods that only read it never block: they see each file's info and each open document as an immutable value, so
+ * a reader gets a consistent version and content even while a change is being applied.
+ */
 public class FileStore {
 
-    private static final Set<Path> workspaceRoots = new HashSet<>();
+    private static volatile Set<Path> workspaceRoots = Set.of();
 
-    private static final Map<Path, VersionedContent> activeDocuments = new HashMap<>();
+    private static final Map<Path, VersionedContent> activeDocuments = new ConcurrentHashMap<>();
 
     /** javaSources[file] is the javaSources time of a .java source file. */
-    // TODO organize by package name for speed of list(...)
-    private static final TreeMap<Path, Info> javaSources = new TreeMap<>();
+    private static final ConcurrentSkipListMap<Path, Info> javaSources = new ConcurrentSkipListMap<>();
 
-    private static class Info {
+    /** packages[packageName] is the .java source files in packageName, an index of javaSources. */
+    private static final Map<String, Set<Path>> packages = new ConcurrentHashMap<>();
+
+    /** sourceRoots[dir] is the number of files in javaSources whose source root is dir. */
+    private static final Map<Path, Integer> sourceRoots = new ConcurrentHashMap<>();
+
+    /** indexed[file] is the info that packages and sourceRoots reflect for file, see reindex */
+    private static final Map<Path, Info> indexed = new ConcurrentHashMap<>();
+
+    /** Counts changes to javaSources and activeDocuments */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /** Counts changes to the saved versions of sources, which edits to open documents don't change */
+    private static final AtomicLong savedGeneration = new AtomicLong();
+
+    /** packageVersions[packageName] is savedGeneration when a file in packageName was last added, removed or saved */
+    private static final Map<String, Long> packageVersions = new ConcurrentHashMap<>();
+
+    private static final long MAX_CACHED_CHARS = 16 * 1024 * 1024;
+
+    /** Text of recently used files that aren't open */
+    private static final ContentCache closedContents = new ContentCache(MAX_CACHED_CHARS);
+
+    /** Line indexes of recently used files that aren't open, which are rebuilt when the file changes on disk */
+    private static final Map<Path, ClosedLineIndex> closedLineIndexes =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, ClosedLineIndex> eldest) {
+                    return size() > MAX_CLOSED_LINE_INDEXES;
+                }
+            };
+
+    private static final int MAX_CLOSED_LINE_INDEXES = 100;
+
+    private static class ClosedLineIndex {
+        final Instant modified;
+        final LineIndex lines;
+
+        ClosedLineIndex(Instant modified, LineIndex lines) {
+            this.modified = modified;
+            this.lines = lines;
+        }
+    }
+
+    /** Saves the files in each workspace root, so restarting doesn't have to read them all again. Null to disable. */
+    static WorkspaceSnapshot snapshot = WorkspaceSnapshot.inUserCache();
+
+    /** Checks snapshots that were loaded against the disk, one after another */
+    private static volatile CompletableFuture<Void> validating = CompletableFuture.completedFuture(null);
+
+    static class Info {
         final Instant modified;
+        final long size;
         final String packageName;
 
-        Info(Instant modified, String packageName) {
+        Info(Instant modified, long size, String packageName) {
             this.modified = modified;
+            this.size = size;
             this.packageName = packageName;
         }
     }
 
     static void setWorkspaceRoots(Set<Path> newRoots) {
+        setWorkspaceRoots(newRoots, __ -> {});
+    }
+
+    /** Like setWorkspaceRoots(newRoots), but report progress while scanning new roots for java sources */
+    static synchronized void setWorkspaceRoots(Set<Path> newRoots, Consumer<JavaReportProgressParams> progress) {
         newRoots = normalize(newRoots);
         for (var root : workspaceRoots) {
             if (!newRoots.contains(root)) {
-                workspaceRoots.removeIf(f -> f.startsWith(root));
+                for (var file : new ArrayList<>(javaSources.tailMap(root, true).keySet())) {
+                    if (!file.startsWith(root)) break;
+                    remove(file);
+                }
             }
         }
+        var addRoots = new ArrayList<Path>();
         for (var root : newRoots) {
             if (!workspaceRoots.contains(root)) {
-                addFiles(root);
+                addRoots.add(root);
             }
         }
-        workspaceRoots.clear();
-        workspaceRoots.addAll(newRoots);
+        addFiles(addRoots, progress);
+        workspaceRoots = Set.copyOf(newRoots);
     }
 
     private static Set<Path> normalize(Set<Path> newRoots) {
@@ -57,30 +129,175 @@ public class FileStore {
         return normalize;
     }
 
-    private static void addFiles(Path root) {
+    /**
+     * Add the java sources in roots from their snapshots, and check the snapshots in the background. Scan roots that
+     * don't have a snapshot yet, and save one.
+     */
+    private static void addFiles(List<Path> roots, Consumer<JavaReportProgressParams> progress) {
+        var scanRoots = new ArrayList<Path>();
+        for (var root : roots) {
+            var saved = snapshot == null ? null : snapshot.load(root);
+            if (saved == null) {
+                scanRoots.add(root);
+                continue;
+            }
+            LOG.info(String.format("Loaded %,d source files in %s from snapshot", saved.size(), root));
+            putAll(root, saved);
+            var check = snapshot;
+            validating = validating.thenRunAsync(() -> validate(root, saved, check));
+        }
+        scanFiles(scanRoots, progress);
+        if (snapshot != null) {
+            for (var root : scanRoots) {
+                snapshot.save(root, filesIn(root));
+            }
+        }
+    }
+
+    /**
+     * Update the files in root that have been created, changed or deleted since saved was written, and save a new
+     * snapshot. This walks the whole root, but only reads the files whose modified time or size has changed.
+     */
+    private static void validate(Path root, Map<Path, Info> saved, WorkspaceSnapshot snapshot) {
         try {
-            Files.walkFileTree(root, new FindJavaSources());
+            tryValidate(root, saved, snapshot);
+        } catch (RuntimeException e) {
+            LOG.log(Level.SEVERE, "Failed to check snapshot of " + root, e);
+        }
+    }
+
+    private static void tryValidate(Path root, Map<Path, Info> saved, WorkspaceSnapshot snapshot) {
+        var files = ForkJoinPool.commonPool().invoke(new FindJavaSources(root));
+        var changed = new ConcurrentHashMap<Path, Optional<Info>>();
+        files.parallelStream()
+                .filter(file -> isChanged(file, saved.get(file)))
+                .forEach(file -> changed.put(file, Optional.ofNullable(readInfo(file))));
+        var found = new HashSet<Path>(files);
+        for (var file : saved.keySet()) {
+            if (!found.contains(file)) {
+                changed.put(file, Optional.empty());
+            }
+        }
+        LOG.info(String.format("...%,d files in %s changed since the snapshot", changed.size(), root));
+        applyChanges(root, saved, changed, snapshot);
+    }
+
+    private static boolean isChanged(Path file, Info saved) {
+        if (saved == null) return true;
+        try {
+            var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.lastModifiedTime().toMillis() != saved.modified.toEpochMilli() || attrs.size() != saved.size;
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            return true;
         }
     }
 
-    static class FindJavaSources extends SimpleFileVisitor<Path> {
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            if (attrs.isSymbolicLink()) {
-                LOG.warning("Don't check " + dir + " for java sources");
-                return FileVisitResult.SKIP_SUBTREE;
+    private static synchronized void applyChanges(
+            Path root, Map<Path, Info> saved, Map<Path, Optional<Info>> changed, WorkspaceSnapshot snapshot) {
+        if (!workspaceRoots.contains(root)) return;
+        for (var file : changed.keySet()) {
+            // Don't undo changes that the client reported while we were checking
+            if (javaSources.get(file) != saved.get(file)) continue;
+            var info = changed.get(file);
+            if (info.isPresent()) {
+                put(file, info.get());
+            } else {
+                remove(file);
             }
-            return FileVisitResult.CONTINUE;
+        }
+        snapshot.save(root, filesIn(root));
+    }
+
+    /** Wait until the snapshots that have been loaded are checked against the disk */
+    static void awaitValidation() {
+        validating.join();
+    }
+
+    /** The files in javaSources that are in root */
+    static Map<Path, Info> filesIn(Path root) {
+        var files = new HashMap<Path, Info>();
+        for (var entry : javaSources.tailMap(root, true).entrySet()) {
+            if (!entry.getKey().startsWith(root)) break;
+            files.put(entry.getKey(), entry.getValue());
+        }
+        return files;
+    }
+
+    /**
+     * Find the java sources in roots and read their package names. Large workspaces have many thousands of files, so
+     * both steps run in parallel, while this thread reports progress.
+     */
+    private static void scanFiles(List<Path> roots, Consumer<JavaReportProgressParams> progress) {
+        if (roots.isEmpty()) return;
+        progress.accept(new JavaReportProgressParams("Finding source files"));
+        var files = new ArrayList<Path>();
+        for (var root : roots) {
+            files.addAll(ForkJoinPool.commonPool().invoke(new FindJavaSources(root)));
+        }
+        var message = String.format("Reading %,d source files", files.size());
+        progress.accept(new JavaReportProgressParams(message));
+        var infos = new ConcurrentHashMap<Path, Info>();
+        var done = new AtomicInteger();
+        Runnable readAll = () -> files.parallelStream().forEach(f -> readInto(infos, f, done));
+        var read = ForkJoinPool.commonPool().submit(readAll);
+        var reported = 0;
+        while (true) {
+            try {
+                read.get(100, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException __) {
+                var percent = done.get() * 100 / files.size();
+                if (percent > reported) {
+                    progress.accept(new JavaReportProgressParams(message, percent - reported));
+                    reported = percent;
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        for (var root : roots) {
+            putAll(root, infos);
+        }
+        LOG.info(String.format("Found %,d source files in %s", infos.size(), roots));
+    }
+
+    private static void readInto(Map<Path, Info> infos, Path file, AtomicInteger done) {
+        var info = readInfo(file);
+        if (info != null) infos.put(file, info);
+        done.incrementAndGet();
+    }
+
+    /** Find the java sources in dir, searching each subdirectory in a separate task */
+    private static class FindJavaSources extends RecursiveTask<List<Path>> {
+        private final Path dir;
+
+        FindJavaSources(Path dir) {
+            this.dir = dir;
         }
 
         @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes _attrs) {
-            if (isJavaFile(file)) {
-                readInfoFromDisk(file);
+        protected List<Path> compute() {
+            var files = new ArrayList<Path>();
+            var subdirs = new ArrayList<FindJavaSources>();
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (var entry : entries) {
+                    var attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        subdirs.add(new FindJavaSources(entry));
+                    } else if (attrs.isSymbolicLink() && Files.isDirectory(entry)) {
+                        LOG.warning("Don't check " + entry + " for java sources");
+                    } else if (isJavaFile(entry)) {
+                        files.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warning("Can't list " + dir + ": " + e.getMessage());
+                return files;
             }
-            return FileVisitResult.CONTINUE;
+            for (var task : invokeAll(subdirs)) {
+                files.addAll(task.join());
+            }
+            return files;
         }
     }
 
@@ -88,29 +305,129 @@ public class FileStore {
         return javaSources.keySet();
     }
 
-    static List<Path> list(String packageName) {
-        var list = new ArrayList<Path>();
-        for (var file : javaSources.keySet()) {
-            if (javaSources.get(file).packageName.equals(packageName)) {
-                list.add(file);
-            }
+    /**
+     * A number that changes whenever a source is added, removed or changed on disk, or opened, edited or closed. If it
+     * hasn't changed since a caller last looked at every file, nothing has changed since then.
+     */
+    static long generation() {
+        return generation.get();
+    }
+
+    /** Like generation, but only counts changes to files on disk, so it stays the same while documents are edited */
+    static long savedGeneration() {
+        return savedGeneration.get();
+    }
+
+    /** A number that changes whenever a file in packageName is added, removed or changed on disk */
+    static long packageVersion(String packageName) {
+        return packageVersions.getOrDefault(packageName, 0L);
+    }
+
+    /** Call action with every source and its modified time, which for an open document is the time of the last edit */
+    static void forEachModified(BiConsumer<Path, Instant> action) {
+        for (var entry : javaSources.entrySet()) {
+            var document = activeDocuments.get(entry.getKey());
+            action.accept(entry.getKey(), document != null ? document.modified : entry.getValue().modified);
         }
-        return list;
+    }
+
+    static List<Path> list(String packageName) {
+        var files = packages.get(packageName);
+        if (files == null) return List.of();
+        return new ArrayList<>(files);
     }
 
     public static Set<Path> sourceRoots() {
-        var roots = new HashSet<Path>();
-        for (var file : javaSources.keySet()) {
-            var root = sourceRoot(file);
-            if (root != null) {
-                roots.add(root);
+        return new HashSet<>(sourceRoots.keySet());
+    }
+
+    /** Add or replace file in javaSources, and keep the indexes up to date */
+    private static void put(Path file, Info info) {
+        javaSources.put(file, info);
+        generation.incrementAndGet();
+        reindex(file, new HashMap<>());
+    }
+
+    /**
+     * Replace the files in root with the ones in infos that are in root. There can be tens of thousands of them, so
+     * each directory is added in parallel. That's safe because the maps are concurrent, and nothing is removed while
+     * adding.
+     */
+    private static void putAll(Path root, Map<Path, Info> infos) {
+        for (var file : filesIn(root).keySet()) {
+            remove(file);
+        }
+        var dirs = new HashMap<Path, List<Path>>();
+        for (var file : infos.keySet()) {
+            if (file.startsWith(root)) {
+                dirs.computeIfAbsent(file.getParent(), __ -> new ArrayList<>()).add(file);
             }
         }
-        return roots;
+        dirs.values().parallelStream().forEach(files -> putDir(files, infos));
     }
 
-    private static Path sourceRoot(Path file) {
-        var info = javaSources.get(file);
+    /** Like put for each of files, which are in the same directory, so they share source roots */
+    private static void putDir(List<Path> files, Map<Path, Info> infos) {
+        var roots = new HashMap<String, Path>();
+        for (var file : files) {
+            javaSources.put(file, infos.get(file));
+            generation.incrementAndGet();
+            reindex(file, roots);
+        }
+    }
+
+    private static void remove(Path file) {
+        javaSources.remove(file);
+        generation.incrementAndGet();
+        reindex(file, new HashMap<>());
+    }
+
+    /**
+     * Make packages and sourceRoots agree with javaSources[file], which has just changed. Writers hold the lock, but
+     * readers add files they find on disk without it, so a reader and a writer can race. Updates for the same file
+     * happen one at a time, and each one looks at javaSources when it runs, so the last one always leaves the indexes
+     * right. roots[packageName] caches source roots for files in the same directory.
+     */
+    private static void reindex(Path file, Map<String, Path> roots) {
+        indexed.compute(
+                file,
+                (__, old) -> {
+                    var info = javaSources.get(file);
+                    if (info == old) return old;
+                    if (old != null) unindex(file, old);
+                    if (info != null) {
+                        var root = roots.computeIfAbsent(info.packageName, ___ -> sourceRoot(file, info));
+                        index(file, info, root);
+                    }
+                    return info;
+                });
+    }
+
+    private static void index(Path file, Info info, Path root) {
+        packageVersions.put(info.packageName, savedGeneration.incrementAndGet());
+        packages.compute(
+                info.packageName,
+                (__, files) -> {
+                    if (files == null) files = new ConcurrentSkipListSet<>();
+                    files.add(file);
+                    return files;
+                });
+        if (root != null) sourceRoots.merge(root, 1, Integer::sum);
+    }
+
+    private static void unindex(Path file, Info info) {
+        packageVersions.put(info.packageName, savedGeneration.incrementAndGet());
+        packages.computeIfPresent(
+                info.packageName,
+                (__, files) -> {
+                    files.remove(file);
+                    return files.isEmpty() ? null : files;
+                });
+        var root = sourceRoot(file, info);
+        if (root != null) sourceRoots.computeIfPresent(root, (__, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static Path sourceRoot(Path file, Info info) {
         var parts = info.packageName.split("\\.");
         var dir = file.getParent();
         for (var i = parts.length - 1; i >= 0; i--) {
@@ -130,24 +447,36 @@ public class FileStore {
 
     static Instant modified(Path file) {
         // If file is open, use last in-memory modification time
-        if (activeDocuments.containsKey(file)) {
-            return activeDocuments.get(file).modified;
-        }
-        // If we've never checked before, look up modified time on disk
-        if (!javaSources.containsKey(file)) {
-            readInfoFromDisk(file);
+        var document = activeDocuments.get(file);
+        if (document != null) {
+            return document.modified;
         }
-        // Look up modified time from cache
-        return javaSources.get(file).modified;
+        return info(file).modified;
+    }
+
+    /** The modified time of file on disk, which unlike modified doesn't change when file is edited as a document */
+    static Instant modifiedOnDisk(Path file) {
+        var info = info(file);
+        if (info == null) return Instant.EPOCH;
+        return info.modified;
     }
 
     static String packageName(Path file) {
-        // If we've never checked before, look up package name on disk
-        if (!javaSources.containsKey(file)) {
-            readInfoFromDisk(file);
-        }
-        // Look up package name from cache
-        return javaSources.get(file).packageName;
+        return info(file).packageName;
+    }
+
+    private static Info info(Path file) {
+        var info = javaSources.get(file);
+        if (info != null) return info;
+        // If we've never checked before, look up info on disk. Read it without the lock, so readers never wait for
+        // writers, and only add it if no writer got there first.
+        info = readInfo(file);
+        if (info == null) return null;
+        var existing = javaSources.putIfAbsent(file, info);
+        if (existing != null) return existing;
+        generation.incrementAndGet();
+        reindex(file, new HashMap<>());
+        return info;
     }
 
     public static String suggestedPackageName(Path file) {
@@ -179,39 +508,94 @@ public class FileStore {
         return list;
     }
 
-    static void externalCreate(Path file) {
+    static synchronized void externalCreate(Path file) {
         readInfoFromDisk(file);
     }
 
-    static void externalChange(Path file) {
+    static synchronized void externalChange(Path file) {
+        closedContents.invalidate(file);
         readInfoFromDisk(file);
     }
 
-    static void externalDelete(Path file) {
-        javaSources.remove(file);
+    static synchronized void externalDelete(Path file) {
+        closedContents.invalidate(file);
+        remove(file);
     }
 
+    /**
+     * Apply a batch of changes that happened outside the editor, like a git checkout, in one step. The changed files
+     * are read in parallel before taking the lock, so other writers only wait while the batch is applied. Returns the
+     * packages that gained, lost or changed files.
+     */
+    static Set<String> externalChanges(Collection<Path> changed, Collection<Path> deleted) {
+        for (var file : changed) {
+            closedContents.invalidate(file);
+        }
+        for (var file : deleted) {
+            closedContents.invalidate(file);
+        }
+        var infos = new ConcurrentHashMap<Path, Info>();
+        changed.parallelStream().forEach(file -> {
+            var info = readInfo(file);
+            if (info != null) infos.put(file, info);
+        });
+        var packages = new HashSet<String>();
+        synchronized (FileStore.class) {
+            for (var file : changed) {
+                var old = javaSources.get(file);
+                if (old != null) packages.add(old.packageName);
+                var info = infos.get(file);
+                if (info != null) {
+                    packages.add(info.packageName);
+                    put(file, info);
+                } else {
+                    remove(file);
+                }
+            }
+            for (var file : deleted) {
+                var old = javaSources.get(file);
+                if (old != null) packages.add(old.packageName);
+                remove(file);
+            }
+        }
+        return packages;
+    }
+
+    /** Called by writers, which hold the lock */
     private static void readInfoFromDisk(Path file) {
+        var info = readInfo(file);
+        if (info != null) {
+            put(file, info);
+        } else {
+            remove(file);
+        }
+    }
+
+    /** Read the modified time and package name of file, or null if it doesn't exist. Safe to call from any thread. */
+    private static Info readInfo(Path file) {
         try {
-            var time = Files.getLastModifiedTime(file).toInstant();
+            var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            // Snapshots only keep milliseconds
+            var time = Instant.ofEpochMilli(attrs.lastModifiedTime().toMillis());
             var packageName = StringSearch.packageName(file);
-            javaSources.put(file, new Info(time, packageName));
+            return new Info(time, attrs.size(), packageName);
         } catch (NoSuchFileException e) {
             LOG.warning(e.getMessage());
-            javaSources.remove(file);
+            return null;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    static void open(DidOpenTextDocumentParams params) {
+    static synchronized void open(DidOpenTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var document = params.textDocument;
         var file = Paths.get(document.uri);
         activeDocuments.put(file, new VersionedContent(document.text, document.version));
+        generation.incrementAndGet();
     }
 
-    static void change(DidChangeTextDocumentParams params) {
+    static synchronized void change(DidChangeTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var document = params.textDocument;
         var file = Paths.get(document.uri);
@@ -220,18 +604,35 @@ public class FileStore {
             LOG.warning("Ignored change with version " + document.version + " <= " + existing.version);
             return;
         }
-        var newText = existing.content;
+        var newText = existing.text;
+        var lastEdit = -1;
         for (var change : params.contentChanges) {
-            if (change.range == null) newText = change.text;
-            else newText = patch(newText, change);
+            if (change.range == null) {
+                newText = Rope.of(change.text);
+                lastEdit = -1;
+            } else {
+                var start = newText.offset(change.range.start.line, change.range.start.character);
+                var end = newText.offset(change.range.end.line, change.range.end.character);
+                newText = newText.replace(start, end, change.text);
+                lastEdit = start;
+            }
         }
-        activeDocuments.put(file, new VersionedContent(newText, document.version));
+        activeDocuments.put(file, new VersionedContent(newText, document.version, lastEdit));
+        generation.incrementAndGet();
     }
 
-    static void close(DidCloseTextDocumentParams params) {
+    static synchronized void close(DidCloseTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var file = Paths.get(params.textDocument.uri);
         activeDocuments.remove(file);
+        generation.incrementAndGet();
+    }
+
+    /** The offset of the most recent edit to file, or -1 if it hasn't been edited since it was opened */
+    static long lastEdit(Path file) {
+        var document = activeDocuments.get(file);
+        if (document == null) return -1;
+        return document.lastEdit;
     }
 
     static Set<Path> activeDocuments() {
@@ -239,14 +640,20 @@ public class FileStore {
     }
 
     public static String contents(Path file) {
+        var document = activeDocuments.get(file);
+        if (document != null) {
+            return document.content();
+        }
+        // Only java files are cached, so this skips the isJavaFile check, which has to ask the disk
+        var cached = closedContents.peek(file);
+        if (cached != null) {
+            return cached;
+        }
         if (!isJavaFile(file)) {
             throw new RuntimeException(file + " is not a java file");
         }
-        if (activeDocuments.containsKey(file)) {
-            return activeDocuments.get(file).content;
-        }
         try {
-            return Files.readString(file);
+            return closedContents.get(file);
         } catch (NoSuchFileException e) {
             LOG.warning(e.getMessage());
             return "";
@@ -255,11 +662,51 @@ public class FileStore {
         }
     }
 
+    /**
+     * Check closed files against the disk again the next time they're read. Until then, a request that reads the same
+     * file many times shares one copy of its text.
+     */
+    static void startRequest() {
+        closedContents.startRequest();
+    }
+
+    /** The line index of the current version of file, which is shared by everyone who converts positions in it */
+    public static LineIndex lineIndex(Path file) {
+        var document = activeDocuments.get(file);
+        if (document != null) {
+            return document.lines();
+        }
+        var info = info(file);
+        if (info == null) return LineIndex.of("");
+        var modified = info.modified;
+        synchronized (closedLineIndexes) {
+            var cached = closedLineIndexes.get(file);
+            if (cached != null && cached.modified.equals(modified)) {
+                return cached.lines;
+            }
+        }
+        var lines = LineIndex.of(contents(file));
+        synchronized (closedLineIndexes) {
+            closedLineIndexes.put(file, new ClosedLineIndex(modified, lines));
+        }
+        return lines;
+    }
+
+    /** Convert a 0-based LSP line and character in the current version of file to an offset, like javac's positions */
+    public static long offset(Path file, int line, int character) {
+        return lineIndex(file).offset(line, character);
+    }
+
     static InputStream inputStream(Path file) {
-        var uri = file.toUri();
-        if (activeDocuments.containsKey(uri)) {
-            var string = activeDocuments.get(uri).content;
-            var bytes = string.getBytes();
+        var document = activeDocuments.get(file);
+        if (document != null) {
+            var bytes = document.content().getBytes(StandardCharsets.UTF_8);
+            return new ByteArrayInputStream(bytes);
+        }
+        // Java files are read through closedContents, like contents, so reading a file as bytes and as text in the same
+        // request only reads the disk once
+        if (closedContents.peek(file) != null || isJavaFile(file)) {
+            var bytes = contents(file).getBytes(StandardCharsets.UTF_8);
             return new ByteArrayInputStream(bytes);
         }
         try {
@@ -274,10 +721,14 @@ public class FileStore {
     }
 
     static BufferedReader bufferedReader(Path file) {
-        var uri = file.toUri();
-        if (activeDocuments.containsKey(uri)) {
-            var string = activeDocuments.get(uri).content;
-            return new BufferedReader(new StringReader(string));
+        var document = activeDocuments.get(file);
+        if (document != null) {
+            return new BufferedReader(new StringReader(document.content()));
+        }
+        // Callers often only read the first few lines, so only use the text of file if it's already been read
+        var cached = closedContents.peek(file);
+        if (cached != null) {
+            return new BufferedReader(new StringReader(cached));
         }
         try {
             return Files.newBufferedReader(file);
@@ -293,57 +744,6 @@ public class FileStore {
         return bufferedReader(file);
     }
 
-    /** Convert from line/column (1-based) to offset (0-based) */
-    static int offset(String contents, int line, int column) {
-        line--;
-        column--;
-        int cursor = 0;
-        while (line > 0) {
-            if (contents.charAt(cursor) == '\n') {
-                line--;
-            }
-            cursor++;
-        }
-        return cursor + column;
-    }
-
-    private static String patch(String sourceText, TextDocumentContentChangeEvent change) {
-        try {
-            var range = change.range;
-            var reader = new BufferedReader(new StringReader(sourceText));
-            var writer = new StringWriter();
-
-            // Skip unchanged lines
-            int line = 0;
-
-            while (line < range.start.line) {
-                writer.write(reader.readLine() + '\n');
-                line++;
-            }
-
-            // Skip unchanged chars
-            for (int character = 0; character < range.start.character; character++) {
-                writer.write(reader.read());
-            }
-
-            // Write replacement text
-            writer.write(change.text);
-
-            // Skip replaced text
-            reader.skip(change.rangeLength);
-
-            // Write remaining text
-            while (true) {
-                int next = reader.read();
-
-                if (next == -1) return writer.toString();
-                else writer.write(next);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     static boolean isJavaFile(Path file) {
         var name = file.getFileName().toString();
         // We hide module-info.java from javac, because when javac sees module-info.java
@@ -382,13 +782,44 @@ public class FileStore {
 }
 
 class VersionedContent {
-    final String content;
+    final Rope text;
     final int version;
     final Instant modified = Instant.now();
+    /** Offset of the last edit in text, or -1 if unknown */
+    final int lastEdit;
+    /** text as a string, once someone has asked for it */
+    private volatile String content;
+    /** Where each line of text starts, once someone has asked for it */
+    private volatile LineIndex lines;
 
     VersionedContent(String content, int version) {
-        Objects.requireNonNull(content, "content is null");
+        this(Rope.of(Objects.requireNonNull(content, "content is null")), version, -1);
         this.content = content;
+    }
+
+    VersionedContent(Rope text, int version, int lastEdit) {
+        Objects.requireNonNull(text, "text is null");
+        this.text = text;
         this.version = version;
+        this.lastEdit = lastEdit;
+    }
+
+    /** The text of this version, which is copied out of the rope the first time it's needed, and then shared */
+    String content() {
+        var result = content;
+        if (result == null) {
+            result = text.toString();
+            content = result;
+        }
+        return result;
+    }
+
+    LineIndex lines() {
+        var result = lines;
+        if (result == null) {
+            result = LineIndex.of(content());
+            lines = result;
+        }
+        return result;
     }
 }
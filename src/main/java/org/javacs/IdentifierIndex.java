@@ -0,0 +1,217 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * IdentifierIndex maps each identifier in the workspace to the sources that contain it, so finding the files that
+ * might refer to a name is a lookup instead of a scan of every file. Like StringSearch.containsWord, it sees words in
+ * comments and strings too, so callers get a superset of the files that really refer to a name. Each source is indexed
+ * with the modified time it had when it was read, and is read again when that changes.
+ */
+class IdentifierIndex {
+    /** How long update indexes files before it lets the server handle requests again */
+    private static final long UPDATE_MILLIS = 100;
+
+    /** Sorted ids of the files that contain one identifier */
+    private static class Postings {
+        final String word;
+        int[] ids = new int[2];
+        int size;
+
+        Postings(String word) {
+            this.word = word;
+        }
+
+        void add(int id) {
+            var i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) return;
+            i = -i - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            ids[i] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            var i = Arrays.binarySearch(ids, 0, size, id);
+            if (i < 0) return;
+            System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+            size--;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /** The id of one file, and the identifiers in it */
+    private static class Indexed {
+        final int id;
+        final String[] words;
+
+        Indexed(int id, String[] words) {
+            this.id = id;
+            this.words = words;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Path, Indexed> files = new HashMap<>();
+    /** paths[id] is the file with id, or null if it has been deleted */
+    private final List<Path> paths = new ArrayList<>();
+    private final StaleSources sources = new StaleSources();
+
+    /** The files that contain every one of words, which must not be empty */
+    synchronized List<Path> filesContaining(String... words) {
+        refresh();
+        var lists = new ArrayList<Postings>();
+        for (var w : words) {
+            var p = postings.get(w);
+            if (p == null) return List.of();
+            lists.add(p);
+        }
+        var result = new ArrayList<Path>();
+        if (lists.isEmpty()) return result;
+        // Check the ids of the rarest word against the others
+        lists.sort(Comparator.comparingInt(p -> p.size));
+        var rarest = lists.get(0);
+        next:
+        for (var i = 0; i < rarest.size; i++) {
+            var id = rarest.ids[i];
+            for (var j = 1; j < lists.size(); j++) {
+                if (!lists.get(j).contains(id)) continue next;
+            }
+            result.add(paths.get(id));
+        }
+        // Same order as FileStore.all()
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Check if file contains word. If file hasn't been indexed since it changed, it's searched instead, so the first
+     * request doesn't wait for the whole workspace to be indexed; update will get to it.
+     */
+    synchronized boolean contains(Path file, String word) {
+        if (sources.isStale(file, this::forget)) return StringSearch.containsWord(file, word);
+        var indexed = files.get(file);
+        var p = postings.get(word);
+        return indexed != null && p != null && p.contains(indexed.id);
+    }
+
+    /** Index stale files for a short time. Returns true if there are more stale files to index. */
+    synchronized boolean update() {
+        var started = System.currentTimeMillis();
+        var changed = staleFiles();
+        for (var i = 0; i < changed.size(); i += 100) {
+            if (System.currentTimeMillis() - started > UPDATE_MILLIS) {
+                LOG.info(String.format("Indexed identifiers in %d files, %d files to go", i, changed.size() - i));
+                return true;
+            }
+            index(changed.subList(i, Math.min(i + 100, changed.size())));
+        }
+        if (!changed.isEmpty()) LOG.info(String.format("Indexed identifiers in %d files", changed.size()));
+        return false;
+    }
+
+    /** Index every stale file */
+    private void refresh() {
+        var changed = staleFiles();
+        if (changed.isEmpty()) return;
+        var started = System.currentTimeMillis();
+        index(changed);
+        var elapsed = System.currentTimeMillis() - started;
+        LOG.info(String.format("Indexed identifiers in %d files (%d ms)", changed.size(), elapsed));
+    }
+
+    /** Files whose identifiers haven't been indexed since they were last modified. Forgets deleted files. */
+    private List<Path> staleFiles() {
+        return sources.check(this::forget);
+    }
+
+    private void forget(Path removed) {
+        var old = files.remove(removed);
+        unindex(old);
+        paths.set(old.id, null);
+    }
+
+    /** Read files in parallel, then replace their identifiers in the index */
+    private void index(List<Path> changed) {
+        var modified = new long[changed.size()];
+        for (var i = 0; i < modified.length; i++) {
+            modified[i] = FileStore.modified(changed.get(i)).toEpochMilli();
+        }
+        var words = changed.parallelStream().map(IdentifierIndex::words).collect(Collectors.toList());
+        for (var i = 0; i < modified.length; i++) {
+            var file = changed.get(i);
+            var old = files.get(file);
+            int id;
+            if (old != null) {
+                id = old.id;
+                unindex(old);
+            } else {
+                id = paths.size();
+                paths.add(file);
+            }
+            var found = words.get(i);
+            var unique = new String[found.size()];
+            var n = 0;
+            for (var w : found) {
+                var p = postings.computeIfAbsent(w, Postings::new);
+                p.add(id);
+                // Share one copy of each word between all the files that contain it
+                unique[n++] = p.word;
+            }
+            files.put(file, new Indexed(id, unique));
+            sources.indexed(file, modified[i]);
+        }
+    }
+
+    private void unindex(Indexed old) {
+        for (var w : old.words) {
+            var p = postings.get(w);
+            p.remove(old.id);
+            if (p.size == 0) postings.remove(w);
+        }
+    }
+
+    /** The distinct words in file, where words are split like StringSearch.containsWord splits them */
+    private static Set<String> words(Path file) {
+        var words = new HashSet<String>();
+        var word = new StringBuilder();
+        var buffer = new char[8192];
+        try (var in = FileStore.bufferedReader(file)) {
+            for (var n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                for (var i = 0; i < n; i++) {
+                    if (isWordChar(buffer[i])) {
+                        word.append(buffer[i]);
+                    } else {
+                        addWord(words, word);
+                    }
+                }
+            }
+            addWord(words, word);
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't read identifiers in %s: %s", file, e.getMessage()));
+        }
+        return words;
+    }
+
+    private static void addWord(Set<String> words, StringBuilder word) {
+        // Numbers can't be names, so leave them out
+        if (word.length() > 0 && !Character.isDigit(word.charAt(0))) {
+            words.add(word.toString());
+        }
+        word.setLength(0);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isAlphabetic(c) || Character.isDigit(c) || c == '_' || c == '$';
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
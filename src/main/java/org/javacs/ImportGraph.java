@@ -0,0 +1,253 @@
+package org.javacs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * ImportGraph records the imports of every workspace source in both directions: the names each file imports, and the
+ * files that import each name. Names are what the import statement says, so `import a.b.C;` is the edge to a.b.C and
+ * `import a.b.*;` is the edge to a.b.*. It also records which packages import from which, including static imports,
+ * so it can tell which packages can depend on a package. Only the files that changed since the last question are read
+ * again.
+ */
+class ImportGraph {
+    private static final Pattern IMPORT_CLASS = Pattern.compile("^import +([\\w\\.]+\\.\\w+);");
+    private static final Pattern IMPORT_STAR = Pattern.compile("^import +([\\w\\.]+\\.\\*);");
+    private static final Pattern IMPORT_STATIC = Pattern.compile("^import +static +([\\w\\.]+)\\.(\\w+|\\*);");
+
+    /** The imports of one file, and the package it was in when they were read */
+    private static class Imports {
+        final String packageName;
+        /** Classes and packages that are imported, not including static imports */
+        final List<String> names;
+        /** Packages that names and static imports come from */
+        final Set<String> packages;
+
+        Imports(String packageName, List<String> names, Set<String> packages) {
+            this.packageName = packageName;
+            this.names = names;
+            this.packages = packages;
+        }
+    }
+
+    /** imports[file] is what file imports */
+    private final Map<Path, Imports> imports = new HashMap<>();
+    /** importers[name] is the files that import name */
+    private final Map<String, Set<Path>> importers = new HashMap<>();
+    /** dependents[q][p] is the number of files in package p that import something from package q */
+    private final Map<String, Map<String, Integer>> dependents = new HashMap<>();
+    private final StaleSources sources = new StaleSources();
+
+    /** The names that file imports */
+    synchronized List<String> imports(Path file) {
+        refresh();
+        var found = imports.get(file);
+        if (found == null) return List.of();
+        return found.names;
+    }
+
+    /** The packages that file imports from, including static imports but not its own package */
+    synchronized Set<String> packages(Path file) {
+        refresh();
+        var found = imports.get(file);
+        if (found == null) return Set.of();
+        return found.packages;
+    }
+
+    /** The files that import name, which is a class like a.b.C or a package like a.b.* */
+    synchronized Set<Path> importers(String name) {
+        refresh();
+        return new HashSet<>(importers.getOrDefault(name, Set.of()));
+    }
+
+    /** The number of files that import name */
+    synchronized int countImporters(String name) {
+        refresh();
+        return importers.getOrDefault(name, Set.of()).size();
+    }
+
+    /** Every name that some file imports */
+    synchronized Set<String> allImports() {
+        refresh();
+        return new HashSet<>(importers.keySet());
+    }
+
+    /**
+     * The packages that can refer to something in packages, including packages themselves. A package can refer to a
+     * class it never imports through a class it does import, for example by calling a method that returns it, so this
+     * follows imports transitively.
+     */
+    synchronized Set<String> dependents(Collection<String> packages) {
+        refresh();
+        var found = new HashSet<String>(packages);
+        var todo = new ArrayDeque<String>(packages);
+        while (!todo.isEmpty()) {
+            var next = dependents.get(todo.remove());
+            if (next == null) continue;
+            for (var p : next.keySet()) {
+                if (found.add(p)) todo.add(p);
+            }
+        }
+        return found;
+    }
+
+    private void refresh() {
+        var changed = sources.check(this::unlink);
+        if (changed.isEmpty()) return;
+        var started = System.currentTimeMillis();
+        for (var file : changed) {
+            var modified = FileStore.modified(file).toEpochMilli();
+            unlink(file);
+            var found = readImports(file);
+            imports.put(file, found);
+            for (var name : found.names) {
+                importers.computeIfAbsent(name, __ -> new HashSet<>()).add(file);
+            }
+            for (var q : found.packages) {
+                dependents.computeIfAbsent(q, __ -> new HashMap<>()).merge(found.packageName, 1, Integer::sum);
+            }
+            sources.indexed(file, modified);
+        }
+        var elapsed = System.currentTimeMillis() - started;
+        LOG.info(String.format("Read imports of %d files (%d ms)", changed.size(), elapsed));
+    }
+
+    /** Remove the edges from file */
+    private void unlink(Path file) {
+        var old = imports.remove(file);
+        if (old == null) return;
+        for (var name : old.names) {
+            var files = importers.get(name);
+            files.remove(file);
+            if (files.isEmpty()) importers.remove(name);
+        }
+        for (var q : old.packages) {
+            var counts = dependents.get(q);
+            if (counts.merge(old.packageName, -1, Integer::sum) == 0) counts.remove(old.packageName);
+            if (counts.isEmpty()) dependents.remove(q);
+        }
+    }
+
+    private static Imports readImports(Path file) {
+        var list = new ArrayList<String>();
+        var packages = new HashSet<String>();
+        try (var in = FileStore.lines(file)) {
+            for (var statement = nextStatement(in); statement != null; statement = nextStatement(in)) {
+                // Annotations before the package declaration only appear in package-info.java
+                if (statement.startsWith("package ") || statement.startsWith("@") || statement.equals(";")) continue;
+                // If we reach a class declaration, stop looking for imports
+                if (!statement.startsWith("import ")) break;
+                // import foo.bar.Doh;
+                var matchesClass = IMPORT_CLASS.matcher(statement);
+                if (matchesClass.matches()) {
+                    list.add(matchesClass.group(1));
+                }
+                // import foo.bar.*
+                var matchesStar = IMPORT_STAR.matcher(statement);
+                if (matchesStar.matches()) {
+                    list.add(matchesStar.group(1));
+                }
+                // import static foo.bar.Doh.member
+                var matchesStatic = IMPORT_STATIC.matcher(statement);
+                if (matchesStatic.matches()) {
+                    packages.add(packageOf(matchesStatic.group(1) + ".*"));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (var name : list) {
+            packages.add(packageOf(name));
+        }
+        var packageName = FileStore.packageName(file);
+        // Importing from your own package doesn't add a dependency
+        packages.remove(packageName);
+        return new Imports(packageName, list, packages);
+    }
+
+    /**
+     * The next statement at the top of a java file, with comments removed and whitespace only kept between words, like
+     * `import static a.b.C.d;`. Returns null at the end of the file, or at the `{` that starts the first type's body,
+     * so the rest of the file isn't read.
+     */
+    private static String nextStatement(BufferedReader in) throws IOException {
+        var statement = new StringBuilder();
+        var space = false;
+        var parens = 0;
+        for (var c = in.read(); c != -1; c = in.read()) {
+            if (c == '/') {
+                in.mark(1);
+                var next = in.read();
+                if (next == '/') {
+                    in.readLine();
+                    space = true;
+                    continue;
+                }
+                if (next == '*') {
+                    skipBlockComment(in);
+                    space = true;
+                    continue;
+                }
+                in.reset();
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (c == '{' && parens == 0) return null;
+            if (c == '(') parens++;
+            if (c == ')') parens--;
+            var last = statement.length() == 0 ? ' ' : statement.charAt(statement.length() - 1);
+            if (space && Character.isJavaIdentifierPart(last) && Character.isJavaIdentifierPart(c)) {
+                statement.append(' ');
+            }
+            space = false;
+            statement.append((char) c);
+            // Strings can only appear in annotations, but they might contain anything
+            if (c == '"' || c == '\'') copyLiteral(in, (char) c, statement);
+            if (c == ';' && parens == 0) return statement.toString();
+        }
+        return null;
+    }
+
+    private static void skipBlockComment(BufferedReader in) throws IOException {
+        var star = false;
+        for (var c = in.read(); c != -1; c = in.read()) {
+            if (star && c == '/') return;
+            star = c == '*';
+        }
+    }
+
+    /** Copy the rest of a string or char literal that started with quote */
+    private static void copyLiteral(BufferedReader in, char quote, StringBuilder statement) throws IOException {
+        for (var c = in.read(); c != -1; c = in.read()) {
+            statement.append((char) c);
+            if (c == '\\') {
+                var escaped = in.read();
+                if (escaped == -1) return;
+                statement.append((char) escaped);
+            } else if (c == quote) {
+                return;
+            }
+        }
+    }
+
+    /** The package part of an imported name, assuming classes start with an upper-case letter, like a.b for a.b.C.D */
+    private static String packageOf(String name) {
+        var parts = name.split("\\.");
+        var end = parts.length - 1;
+        for (var i = 0; i < end; i++) {
+            if (Character.isUpperCase(parts[i].charAt(0))) {
+                end = i;
+                break;
+            }
+        }
+        return String.join(".", Arrays.asList(parts).subList(0, end));
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
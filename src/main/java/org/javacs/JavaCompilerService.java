@@ -1,25 +1,39 @@
 package org.javacs;
 
+import com.sun.source.tree.*;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
 import java.io.IOException;
 import java.nio.file.*;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import javax.lang.model.element.Modifier;
 import javax.tools.*;
 
 class JavaCompilerService implements CompilerProvider {
     // Not modifiable! If you want to edit these, you need to create a new instance
     final Set<Path> classPath, docPath;
     final Set<String> addExports;
-    final ReusableCompiler compiler = new ReusableCompiler();
+    // Requests are handled one at a time, so there only need to be enough compilers for the cached batches. A new
+    // compile evicts the least recent batch to free its compiler. Each one retains its own symbol table.
+    final ReusableCompiler compiler = new ReusableCompiler(MAX_CACHED_COMPILES);
     final Docs docs;
     final Set<String> jdkClasses = ScanClassPath.jdkTopLevelClasses(), classPathClasses;
-    // Diagnostics from the last compilation task
-    final List<Diagnostic<? extends JavaFileObject>> diags = new ArrayList<>();
-    // Use the same file manager for multiple tasks, so we don't repeatedly re-compile the same files
-    // TODO intercept files that aren't in the batch and erase method bodies so compilation is faster
+    // Use the same file manager for multiple lookups, so we don't repeatedly re-list the same files
     final SourceFileManager fileManager;
+    // Erase method bodies of files that javac finds on the source path, see SourceFileManager
+    boolean pruneImplicitSources = true;
+    // Class files of unchanged workspace sources, which javac reads instead of parsing the sources
+    ClassOutputCache classCache;
+    // Idle work gives up when this is true, usually because a request is waiting, and tries again later
+    BooleanSupplier cancelIdleWork = () -> false;
+    // Added to every task while idle work is compiling, so it stops at the next javac event when cancelIdleWork is true
+    TaskListener idleListener;
 
     JavaCompilerService(Set<Path> classPath, Set<Path> docPath, Set<String> addExports) {
         System.err.println("Class path:");
@@ -37,64 +51,324 @@ class JavaCompilerService implements CompilerProvider {
         this.docs = new Docs(docPath);
         this.classPathClasses = ScanClassPath.classPathTopLevelClasses(classPath);
         this.fileManager = new SourceFileManager();
+        this.classCache = ClassOutputCache.inUserCache(CompileBatch.options(classPath, addExports), importGraph);
+        this.compiler.onExhausted(cachedCompiles::evictIdle);
     }
 
-    private CompileBatch cachedCompile;
-    private Map<JavaFileObject, Long> cachedModified = new HashMap<>();
+    /** Each compiler has its own file manager, because file managers are not thread-safe */
+    SourceFileManager newFileManager() {
+        var fileManager = new SourceFileManager();
+        fileManager.pruneImplicitSources = pruneImplicitSources;
+        fileManager.classCache = classCache;
+        return fileManager;
+    }
 
-    private boolean needsCompile(Collection<? extends JavaFileObject> sources) {
-        if (cachedModified.size() != sources.size()) {
+    // Keep each step of generating the class cache short, because requests wait for it until it's done or cancelled
+    private static final int MAX_GENERATE_FILES = 1;
+
+    /**
+     * Generate class files for the next workspace source that isn't in classCache yet. Open files are skipped, because
+     * they are likely to change again soon. The first call deletes class files that haven't been used for a while
+     * instead. Returns false if there is nothing to generate.
+     */
+    boolean generateClassCache() {
+        if (classCache.evictUnused()) return true;
+        var preferred = openDocumentImports();
+        preferred.addAll(changedPackageFiles());
+        var files = staleSources(preferred);
+        // If looking for stale files was cancelled, there may be more of them
+        if (files.isEmpty()) return cancelIdleWork.getAsBoolean();
+        var packageName = FileStore.packageName(files.get(0));
+        LOG.info(String.format("Generate class files for %d files in `%s`...", files.size(), packageName));
+        var sources = new ArrayList<JavaFileObject>();
+        for (var f : files) {
+            sources.add(new SourceFileObject(f));
+        }
+        var options = new ArrayList<String>(CompileBatch.options(classPath, addExports));
+        // Only the roots get class files, other files come from the cache, or source if they're not in the cache yet
+        options.add("-implicit:none");
+        var diagnostics = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+        var finished =
+                compileIdle(
+                        () -> {
+                            try (var borrow =
+                                    compiler.getTask(
+                                            this::newFileManager, diagnostics::add, options, List.of(), sources)) {
+                                var fileManager = (SourceFileManager) borrow.fileManager;
+                                // Javac won't generate anything if pruned method bodies cause errors
+                                fileManager.pruneImplicitSources = false;
+                                fileManager.generateToClassCache = true;
+                                fileManager.setBatchRoots(sources);
+                                borrow.task.addTaskListener(idleListener);
+                                borrow.task.generate();
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        if (!finished) {
+            for (var f : files) {
+                classCache.discard(f);
+            }
             return true;
         }
-        for (var f : sources) {
-            if (!cachedModified.containsKey(f)) {
-                return true;
+        var errors = new HashSet<Path>();
+        for (var d : diagnostics) {
+            if (d.getKind() != Diagnostic.Kind.ERROR || !(d.getSource() instanceof SourceFileObject)) continue;
+            errors.add(((SourceFileObject) d.getSource()).path);
+        }
+        // If the errors were in dependencies, give up on the whole batch
+        var blameAll = !errors.isEmpty() && Collections.disjoint(errors, files);
+        for (var f : files) {
+            if (blameAll || errors.contains(f)) {
+                classCache.fail(f);
+            } else if (!errors.isEmpty()) {
+                // Javac didn't generate anything, so files without errors have to try again without the others
+                classCache.discard(f);
+            } else {
+                classCache.commit(f);
             }
-            if (f.getLastModified() != cachedModified.get(f)) {
-                return true;
+        }
+        LOG.info(String.format("...%d files had errors", errors.size()));
+        return true;
+    }
+
+    /** Stale sources from one package, starting with the package of the first stale file in preferred, if any */
+    private List<Path> staleSources(Collection<Path> preferred) {
+        var active = FileStore.activeDocuments();
+        var candidates = new ArrayList<Path>(preferred);
+        candidates.addAll(FileStore.all());
+        var stale = new ArrayList<Path>();
+        String packageName = null;
+        for (var file : candidates) {
+            // Working out the keys of a whole workspace for the first time takes a while
+            if (cancelIdleWork.getAsBoolean()) break;
+            if (active.contains(file) || !classCache.isStale(file)) continue;
+            var filePackage = FileStore.packageName(file);
+            if (packageName == null) packageName = filePackage;
+            if (!filePackage.equals(packageName) || stale.contains(file)) continue;
+            stale.add(file);
+            if (stale.size() == MAX_GENERATE_FILES) break;
+        }
+        return stale;
+    }
+
+    /** Packages that changed outside the editor, whose class files should be generated again first */
+    private final Set<String> changedPackages = new LinkedHashSet<>();
+
+    /**
+     * Forget compiles of files, which changed outside the editor, in packages, all at once. Class files for the
+     * changed packages are generated again in the background, before the rest of the workspace.
+     */
+    void externalChanges(Set<Path> files, Set<String> packages) {
+        cachedCompiles.evictChanged(files);
+        changedPackages.addAll(packages);
+    }
+
+    /** Files in changedPackages, dropping the packages that don't need class files anymore */
+    private List<Path> changedPackageFiles() {
+        var files = new ArrayList<Path>();
+        var it = changedPackages.iterator();
+        while (it.hasNext()) {
+            var packageFiles = FileStore.list(it.next());
+            if (packageFiles.stream().noneMatch(classCache::isStale)) {
+                it.remove();
+                continue;
             }
+            files.addAll(packageFiles);
         }
-        return false;
+        return files;
     }
 
-    private void loadCompile(Collection<? extends JavaFileObject> sources) {
-        if (cachedCompile != null) {
-            if (!cachedCompile.closed) {
-                throw new RuntimeException("Compiler is still in-use!");
+    /** Workspace files that the open documents import, so javac can load them from classCache when it compiles them */
+    private Set<Path> openDocumentImports() {
+        var imports = new LinkedHashSet<Path>();
+        for (var file : FileStore.activeDocuments()) {
+            for (var i : parse(file).root.getImports()) {
+                if (i.isStatic()) continue;
+                var name = i.getQualifiedIdentifier().toString();
+                if (name.endsWith(".*")) {
+                    imports.addAll(FileStore.list(name.substring(0, name.length() - ".*".length())));
+                    continue;
+                }
+                var declaration = findTypeDeclaration(name);
+                if (declaration != NOT_FOUND) {
+                    imports.add(declaration);
+                }
             }
-            cachedCompile.borrow.close();
         }
-        cachedCompile = doCompile(sources);
-        cachedModified.clear();
-        for (var f : sources) {
-            cachedModified.put(f, f.getLastModified());
+        return imports;
+    }
+
+    /** When each open document was last precompiled, so a document that gets evicted isn't compiled over and over */
+    private final Map<Path, Instant> precompiled = new HashMap<>();
+
+    /**
+     * Compile one of the most recently edited open documents that isn't in the compile cache, so the next request
+     * about it doesn't have to wait for javac. After an edit, the next requests are usually lint, completion and code
+     * actions, which need the FULL profile, and a FULL batch serves ATTRIBUTE requests like hover too. Returns false
+     * if there is nothing left to precompile.
+     */
+    boolean precompileOpenDocument() {
+        var recent = new ArrayList<Path>(FileStore.activeDocuments());
+        recent.sort(Comparator.comparing(FileStore::modified).reversed());
+        // Precompiling more documents than the cache can hold would only evict the ones we just compiled
+        recent = new ArrayList<>(recent.subList(0, Math.min(recent.size(), MAX_CACHED_COMPILES)));
+        precompiled.keySet().retainAll(recent);
+        for (var file : recent) {
+            var modified = FileStore.modified(file);
+            if (modified.equals(precompiled.get(file))) continue;
+            precompiled.put(file, modified);
+            var sources = sourceFiles(file);
+            if (cachedCompiles.has(sources, CompileProfile.FULL)) continue;
+            LOG.info("Precompile " + file.getFileName() + "...");
+            var finished = compileIdle(() -> compile(CompileProfile.FULL, sources).close());
+            if (!finished) precompiled.remove(file);
+            return true;
         }
+        return false;
     }
 
-    private CompileBatch doCompile(Collection<? extends JavaFileObject> sources) {
+    /**
+     * Run compile as idle work, which stops at the next javac event once cancelIdleWork is true. Returns false if it
+     * was cancelled.
+     */
+    private boolean compileIdle(Runnable compile) {
+        idleListener =
+                new TaskListener() {
+                    @Override
+                    public void started(TaskEvent e) {
+                        if (cancelIdleWork.getAsBoolean()) throw new CancellationException();
+                    }
+
+                    @Override
+                    public void finished(TaskEvent e) {
+                        if (cancelIdleWork.getAsBoolean()) throw new CancellationException();
+                    }
+                };
+        try {
+            compile.run();
+            return true;
+        } catch (RuntimeException e) {
+            // Javac wraps exceptions thrown by listeners
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof CancellationException) {
+                    LOG.info("...cancelled, because a request is waiting");
+                    return false;
+                }
+            }
+            throw e;
+        } finally {
+            idleListener = null;
+        }
+    }
+
+    private static final int MAX_CACHED_COMPILES = 2;
+
+    // Recently compiled batches, so jumping back and forth between a few files doesn't recompile each time
+    private final CompileCache cachedCompiles =
+            new CompileCache(MAX_CACHED_COMPILES, Runtime.getRuntime().maxMemory() / 4);
+
+    private CompileBatch doCompile(
+            Collection<? extends JavaFileObject> sources, CompileProfile profile, boolean allowPartial) {
         if (sources.isEmpty()) throw new RuntimeException("empty sources");
-        var firstAttempt = new CompileBatch(this, sources);
-        var addFiles = firstAttempt.needsAdditionalSources();
-        if (addFiles.isEmpty()) return firstAttempt;
-        // If the compiler needs additional source files that contain package-private files
-        LOG.info("...need to recompile with " + addFiles);
-        firstAttempt.close();
-        firstAttempt.borrow.close();
+        var addFiles = packagePrivateDependencies(sources);
+        if (addFiles.isEmpty()) return new CompileBatch(this, sources, profile, allowPartial);
+        // If sources refer to package-private classes in source files with different names, javac won't find them
+        LOG.info("...compile with " + addFiles);
         var moreSources = new ArrayList<JavaFileObject>();
         moreSources.addAll(sources);
         for (var add : addFiles) {
             moreSources.add(new SourceFileObject(add));
         }
-        return new CompileBatch(this, moreSources);
+        return new CompileBatch(this, moreSources, profile, allowPartial);
+    }
+
+    /** Files in the same package as sources that declare package-private classes that sources refer to */
+    private Set<Path> packagePrivateDependencies(Collection<? extends JavaFileObject> sources) {
+        var roots = new HashSet<Path>();
+        for (var source : sources) {
+            if (!source.toUri().getScheme().equals("file")) continue;
+            var file = Paths.get(source.toUri());
+            // Files that aren't on disk aren't part of any package in FileStore
+            if (Files.exists(file)) {
+                roots.add(file);
+            }
+        }
+        var addFiles = new HashSet<Path>();
+        for (var source : sources) {
+            if (!source.toUri().getScheme().equals("file")) continue;
+            var root = Paths.get(source.toUri());
+            if (!roots.contains(root)) continue;
+            var packageName = FileStore.packageName(root);
+            var packageFiles = FileStore.list(packageName);
+            // Classes that javac can already find, because they're roots or they have their own file
+            var declared = new HashSet<String>();
+            for (var file : packageFiles) {
+                declared.add(className(file));
+                if (roots.contains(file)) {
+                    declared.addAll(packagePrivateClasses(file));
+                }
+            }
+            String contents = null;
+            for (var file : packageFiles) {
+                if (roots.contains(file) || addFiles.contains(file)) continue;
+                for (var className : packagePrivateClasses(file)) {
+                    if (declared.contains(className)) continue;
+                    if (contents == null) contents = contents(source);
+                    if (new StringSearch(className).nextWord(contents) != -1) {
+                        addFiles.add(file);
+                        break;
+                    }
+                }
+            }
+        }
+        return addFiles;
+    }
+
+    private String contents(JavaFileObject source) {
+        try {
+            return source.getCharContent(true).toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String className(Path file) {
+        var fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ".java".length());
+    }
+
+    private final Cache<Void, List<String>> cachePackagePrivateClasses = new Cache<>();
+
+    /** Top-level classes in file that aren't named after file, so javac can't find them on the source path */
+    private synchronized List<String> packagePrivateClasses(Path file) {
+        if (cachePackagePrivateClasses.needs(file, null)) {
+            var fileClass = className(file);
+            var classes = new ArrayList<String>();
+            for (var name : Parser.parseFileUncached(file).packagePrivateClasses()) {
+                if (!name.contentEquals(fileClass)) {
+                    classes.add(name.toString());
+                }
+            }
+            cachePackagePrivateClasses.load(file, null, classes);
+        }
+        return cachePackagePrivateClasses.get(file, null);
     }
 
-    private CompileBatch compileBatch(Collection<? extends JavaFileObject> sources) {
-        if (needsCompile(sources)) {
-            loadCompile(sources);
-        } else {
-            LOG.info("...using cached compile");
+    private CompileBatch compileBatch(
+            Collection<? extends JavaFileObject> sources, CompileProfile profile, boolean allowPartial) {
+        var cached = cachedCompiles.get(sources, profile);
+        if (cached != null) {
+            return cached;
+        }
+        var batch = doCompile(sources, profile, allowPartial);
+        // Partial batches are missing most method bodies, so they aren't useful to other requests
+        if (batch.partial) {
+            batch.evict();
+            return batch;
         }
-        return cachedCompile;
+        cachedCompiles.put(sources, batch);
+        return batch;
     }
 
     private static final Pattern PACKAGE_EXTRACTOR = Pattern.compile("^([a-z][_a-zA-Z0-9]*\\.)*[a-z][_a-zA-Z0-9]*");
@@ -117,13 +391,12 @@ class JavaCompilerService implements CompilerProvider {
         return "";
     }
 
-    private static final Cache<String, Boolean> cacheContainsWord = new Cache<>();
+    /** Identifiers in every workspace source, which don't depend on the settings, so every compiler shares them */
+    private static final IdentifierIndex identifiers = new IdentifierIndex();
 
-    private boolean containsWord(Path file, String word) {
-        if (cacheContainsWord.needs(file, word)) {
-            cacheContainsWord.load(file, word, StringSearch.containsWord(file, word));
-        }
-        return cacheContainsWord.get(file, word);
+    /** Index the identifiers in sources that changed, for a short time. Returns true if there is more to do. */
+    boolean indexIdentifiers() {
+        return identifiers.update();
     }
 
     private static final Cache<Void, List<String>> cacheContainsType = new Cache<>();
@@ -138,48 +411,17 @@ class JavaCompilerService implements CompilerProvider {
         return cacheContainsType.get(file, null).contains(className);
     }
 
-    private Cache<Void, List<String>> cacheFileImports = new Cache<>();
-
-    private List<String> readImports(Path file) {
-        if (cacheFileImports.needs(file, null)) {
-            loadImports(file);
-        }
-        return cacheFileImports.get(file, null);
-    }
+    /** Imports of every workspace source, which don't depend on the settings, so every compiler shares them */
+    private static final ImportGraph importGraph = new ImportGraph();
 
-    private void loadImports(Path file) {
-        var list = new ArrayList<String>();
-        var importClass = Pattern.compile("^import +([\\w\\.]+\\.\\w+);");
-        var importStar = Pattern.compile("^import +([\\w\\.]+\\.\\*);");
-        try (var lines = FileStore.lines(file)) {
-            for (var line = lines.readLine(); line != null; line = lines.readLine()) {
-                // If we reach a class declaration, stop looking for imports
-                // TODO This could be a little more specific
-                if (line.contains("class")) break;
-                // import foo.bar.Doh;
-                var matchesClass = importClass.matcher(line);
-                if (matchesClass.matches()) {
-                    list.add(matchesClass.group(1));
-                }
-                // import foo.bar.*
-                var matchesStar = importStar.matcher(line);
-                if (matchesStar.matches()) {
-                    list.add(matchesStar.group(1));
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        cacheFileImports.load(file, null, list);
+    @Override
+    public Set<String> imports() {
+        return importGraph.allImports();
     }
 
     @Override
-    public Set<String> imports() {
-        var all = new HashSet<String>();
-        for (var f : FileStore.all()) {
-            all.addAll(readImports(f));
-        }
-        return all;
+    public int countImporters(String qualifiedName) {
+        return importGraph.countImporters(qualifiedName);
     }
 
     @Override
@@ -205,16 +447,6 @@ class JavaCompilerService implements CompilerProvider {
         return List.of("TODO");
     }
 
-    private boolean containsImport(Path file, String className) {
-        var packageName = packageName(className);
-        if (FileStore.packageName(file).equals(packageName)) return true;
-        var star = packageName + ".*";
-        for (var i : readImports(file)) {
-            if (i.equals(className) || i.equals(star)) return true;
-        }
-        return false;
-    }
-
     @Override
     public Iterable<Path> search(String query) {
         Predicate<Path> test = f -> StringSearch.containsWordMatching(f, query);
@@ -276,7 +508,7 @@ class JavaCompilerService implements CompilerProvider {
         var packageName = packageName(className);
         var simpleName = simpleName(className);
         for (var f : FileStore.list(packageName)) {
-            if (containsWord(f, simpleName) && containsType(f, className)) {
+            if (identifiers.contains(f, simpleName) && containsType(f, className)) {
                 return f;
             }
         }
@@ -303,24 +535,95 @@ class JavaCompilerService implements CompilerProvider {
     public Path[] findTypeReferences(String className) {
         var packageName = packageName(className);
         var simpleName = simpleName(className);
-        var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, packageName) && containsImport(f, className) && containsWord(f, simpleName)) {
-                candidates.add(f);
-            }
+        // A file that refers to className is in the same package, or imports className or its package
+        var candidates = new TreeSet<Path>(FileStore.list(packageName));
+        candidates.addAll(importGraph.importers(className));
+        if (!packageName.isEmpty()) {
+            candidates.addAll(importGraph.importers(packageName + ".*"));
+        }
+        if (!simpleName.isEmpty()) {
+            candidates.removeIf(f -> !identifiers.contains(f, simpleName));
         }
         return candidates.toArray(Path[]::new);
     }
 
     @Override
     public Path[] findMemberReferences(String className, String memberName) {
-        var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, memberName)) {
-                candidates.add(f);
+        var candidates = identifiers.filesContaining(memberName);
+        var visible = canSeeMember(className, memberName);
+        var count = candidates.size();
+        candidates.removeIf(visible.negate());
+        LOG.info(String.format("...%d of %d files that contain `%s` can see it", candidates.size(), count, memberName));
+        return candidates.toArray(Path[]::new);
+    }
+
+    /**
+     * Which files can refer to the members of className named memberName. Private members can only be used in the file
+     * that declares them, and package-private members in their package. Other members can only be used in packages
+     * that depend on the declaring package. If className isn't in the workspace, any file might use it.
+     */
+    private Predicate<Path> canSeeMember(String className, String memberName) {
+        var declaring = findTypeDeclaration(className);
+        if (declaring == NOT_FOUND) return f -> true;
+        var parse = Parser.parseFileUncached(declaring);
+        var type = new FindTypeDeclarationNamed().scan(parse.root, className);
+        if (type == null) return f -> true;
+        var packageName = FileStore.packageName(declaring);
+        switch (widestAccess(type, memberName)) {
+            case PRIVATE:
+                return f -> f.equals(declaring);
+            case PACKAGE:
+                return f -> FileStore.packageName(f).equals(packageName);
+            default:
+                // Files that use a fully-qualified name don't have to import it
+                var roots = new HashSet<String>();
+                roots.add(packageName);
+                var parts = packageName.split("\\.");
+                if (!packageName.isEmpty()) {
+                    for (var f : identifiers.filesContaining(parts)) {
+                        roots.add(FileStore.packageName(f));
+                    }
+                }
+                var packages = importGraph.dependents(roots);
+                return f -> packages.contains(FileStore.packageName(f));
+        }
+    }
+
+    private enum Access {
+        PRIVATE,
+        PACKAGE,
+        PUBLIC
+    }
+
+    /** The widest access of the members of type named memberName, where a constructor is named after its class */
+    private Access widestAccess(ClassTree type, String memberName) {
+        var inInterface = type.getKind() == Tree.Kind.INTERFACE || type.getKind() == Tree.Kind.ANNOTATION_TYPE;
+        var widest = Access.PRIVATE;
+        var found = false;
+        for (var member : type.getMembers()) {
+            ModifiersTree modifiers;
+            if (member instanceof MethodTree) {
+                var method = (MethodTree) member;
+                var name = method.getName().contentEquals("<init>") ? type.getSimpleName() : method.getName();
+                if (!name.contentEquals(memberName)) continue;
+                modifiers = method.getModifiers();
+            } else if (member instanceof VariableTree) {
+                var field = (VariableTree) member;
+                if (!field.getName().contentEquals(memberName)) continue;
+                modifiers = field.getModifiers();
+            } else {
+                continue;
             }
+            found = true;
+            var flags = modifiers.getFlags();
+            if (flags.contains(Modifier.PUBLIC) || flags.contains(Modifier.PROTECTED)) return Access.PUBLIC;
+            if (flags.contains(Modifier.PRIVATE)) continue;
+            if (inInterface) return Access.PUBLIC;
+            widest = Access.PACKAGE;
         }
-        return candidates.toArray(Path[]::new);
+        // Members we can't see, like the ones a record or lombok generates, could be anything
+        if (!found) return Access.PUBLIC;
+        return widest;
     }
 
     @Override
@@ -337,17 +640,39 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public CompileTask compile(Path... files) {
+        return compile(CompileProfile.FULL, files);
+    }
+
+    @Override
+    public CompileTask compile(Collection<? extends JavaFileObject> sources) {
+        return compile(CompileProfile.FULL, sources);
+    }
+
+    @Override
+    public CompileTask compile(CompileProfile profile, Path... files) {
+        return compile(profile, sourceFiles(files));
+    }
+
+    @Override
+    public CompileTask compile(CompileProfile profile, Collection<? extends JavaFileObject> sources) {
+        return compileTask(compileBatch(sources, profile, false));
+    }
+
+    @Override
+    public CompileTask compileForErrors(Path... files) {
+        return compileTask(compileBatch(sourceFiles(files), CompileProfile.FULL, true));
+    }
+
+    private List<JavaFileObject> sourceFiles(Path... files) {
         var sources = new ArrayList<JavaFileObject>();
         for (var f : files) {
             sources.add(new SourceFileObject(f));
         }
-        return compile(sources);
+        return sources;
     }
 
-    @Override
-    public CompileTask compile(Collection<? extends JavaFileObject> sources) {
-        var compile = compileBatch(sources);
-        return new CompileTask(compile.task, compile.roots, diags, compile::close);
+    private CompileTask compileTask(CompileBatch compile) {
+        return new CompileTask(compile.task, compile.roots, compile.diagnostics, compile.partial, compile::close);
     }
 
     private static final Logger LOG = Logger.getLogger("main");
@@ -33,10 +33,17 @@ class JavaLanguageServer extends LanguageServer {
     private JsonObject cacheSettings;
     private JsonObject settings = new JsonObject();
     private boolean modifiedBuild = true;
+    /** Whether the client will send workspace/didChangeWatchedFiles, if we register for it */
+    private boolean clientWatchesFiles;
+    /** Watches the workspace for changes when the client doesn't */
+    private WorkspaceWatcher watcher;
+    /** Declarations in the workspace, for workspace/symbol */
+    private SymbolIndex symbolIndex;
 
     JavaCompilerService compiler() {
         if (needsCompiler()) {
             cacheCompiler = createCompiler();
+            cacheCompiler.cancelIdleWork = this::messagesWaiting;
             cacheSettings = settings;
             modifiedBuild = false;
         }
@@ -58,7 +65,7 @@ class JavaLanguageServer extends LanguageServer {
         if (files.isEmpty()) return;
         LOG.info("Lint " + files.size() + " files...");
         var started = Instant.now();
-        try (var task = compiler().compile(files.toArray(Path[]::new))) {
+        try (var task = compiler().compileForErrors(files.toArray(Path[]::new))) {
             var compiled = Instant.now();
             LOG.info("...compiled in " + Duration.between(started, compiled).toMillis() + " ms");
             for (var errs : new ErrorProvider(task).errors()) {
@@ -146,7 +153,8 @@ class JavaLanguageServer extends LanguageServer {
     @Override
     public InitializeResult initialize(InitializeParams params) {
         this.workspaceRoot = Paths.get(params.rootUri);
-        FileStore.setWorkspaceRoots(Set.of(Paths.get(params.rootUri)));
+        this.clientWatchesFiles = clientWatchesFiles(params.capabilities);
+        this.symbolIndex = SymbolIndex.inUserCache(Set.of(workspaceRoot));
 
         var c = new JsonObject();
         c.addProperty("textDocumentSync", 2); // Incremental
@@ -179,13 +187,39 @@ class JavaLanguageServer extends LanguageServer {
         return new InitializeResult(c);
     }
 
+    private static boolean clientWatchesFiles(JsonElement capabilities) {
+        if (capabilities == null || !capabilities.isJsonObject()) return false;
+        var workspace = capabilities.getAsJsonObject().getAsJsonObject("workspace");
+        if (workspace == null) return false;
+        var watched = workspace.getAsJsonObject("didChangeWatchedFiles");
+        if (watched == null) return false;
+        var dynamic = watched.get("dynamicRegistration");
+        return dynamic != null && dynamic.getAsBoolean();
+    }
+
     private static final String[] watchFiles = {
         "**/*.java", "**/pom.xml", "**/BUILD",
     };
 
+    /** The files that watchFiles matches */
+    private static boolean isWatched(Path file) {
+        var name = file.getFileName().toString();
+        return name.endsWith(".java") || name.equals("pom.xml") || name.equals("BUILD");
+    }
+
     @Override
     public void initialized() {
-        client.registerCapability("workspace/didChangeWatchedFiles", watchFiles(watchFiles));
+        if (clientWatchesFiles) {
+            client.registerCapability("workspace/didChangeWatchedFiles", watchFiles(watchFiles));
+        } else {
+            // Start watching before scanning, so nothing that changes during the scan is missed
+            LOG.info("Client doesn't watch files, so watch the workspace ourselves");
+            watcher = new WorkspaceWatcher(Set.of(workspaceRoot), JavaLanguageServer::isWatched);
+        }
+        // Scan the workspace after initialize has returned, so the client is ready to show progress
+        javaStartProgress(new JavaStartProgressParams("Scan workspace"));
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot), this::javaReportProgress);
+        javaEndProgress();
     }
 
     private JsonObject watchFiles(String... globPatterns) {
@@ -201,7 +235,12 @@ class JavaLanguageServer extends LanguageServer {
     }
 
     @Override
-    public void shutdown() {}
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
 
     public JavaLanguageServer(LanguageClient client) {
         this.client = client;
@@ -209,7 +248,20 @@ class JavaLanguageServer extends LanguageServer {
 
     @Override
     public List<SymbolInformation> workspaceSymbols(WorkspaceSymbolParams params) {
-        return new SymbolProvider(compiler()).findSymbols(params.query, 50);
+        if (params.partialResultToken == null) {
+            return symbolIndex.search(params.query, 50);
+        }
+        // Stream results as they're found, the final response has to be empty
+        symbolIndex.search(
+                params.query,
+                50,
+                batch -> {
+                    var progress = new JsonObject();
+                    progress.add("token", params.partialResultToken);
+                    progress.add("value", GSON.toJsonTree(batch));
+                    client.customNotification("$/progress", progress);
+                });
+        return List.of();
     }
 
     @Override
@@ -221,21 +273,17 @@ class JavaLanguageServer extends LanguageServer {
 
     @Override
     public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
+        var changed = new ArrayList<Path>();
+        var deleted = new ArrayList<Path>();
         for (var c : params.changes) {
             var file = Paths.get(c.uri);
             if (FileStore.isJavaFile(file)) {
-                switch (c.type) {
-                    case FileChangeType.Created:
-                        FileStore.externalCreate(file);
-                        break;
-                    case FileChangeType.Changed:
-                        FileStore.externalChange(file);
-                        break;
-                    case FileChangeType.Deleted:
-                        FileStore.externalDelete(file);
-                        break;
+                if (c.type == FileChangeType.Deleted) {
+                    deleted.add(file);
+                } else {
+                    changed.add(file);
                 }
-                return;
+                continue;
             }
             var name = file.getFileName().toString();
             switch (name) {
@@ -245,6 +293,19 @@ class JavaLanguageServer extends LanguageServer {
                     modifiedBuild = true;
             }
         }
+        if (changed.isEmpty() && deleted.isEmpty()) return;
+        // A branch switch can change thousands of files, so apply them together and invalidate caches once
+        var started = Instant.now();
+        var packages = FileStore.externalChanges(changed, deleted);
+        var files = new HashSet<Path>(changed);
+        files.addAll(deleted);
+        Cache.forget(files);
+        if (cacheCompiler != null) {
+            cacheCompiler.externalChanges(files, packages);
+        }
+        var elapsed = Duration.between(started, Instant.now()).toMillis();
+        var message = "Applied %d changes in %d packages from outside the editor in %d ms";
+        LOG.info(String.format(message, files.size(), packages.size(), elapsed));
     }
 
     @Override
@@ -359,8 +420,7 @@ class JavaLanguageServer extends LanguageServer {
         LOG.info("Try to rename...");
         var file = Paths.get(params.textDocument.uri);
         try (var task = compiler().compile(file)) {
-            var lines = task.root().getLineMap();
-            var cursor = lines.getPosition(params.position.line + 1, params.position.character + 1);
+            var cursor = FileStore.offset(file, params.position.line, params.position.character);
             var path = new FindNameAt(task).scan(task.root(), cursor);
             if (path == null) {
                 LOG.info("...no element under cursor");
@@ -424,8 +484,7 @@ class JavaLanguageServer extends LanguageServer {
     private Rewrite createRewrite(RenameParams params) {
         var file = Paths.get(params.textDocument.uri);
         try (var task = compiler().compile(file)) {
-            var lines = task.root().getLineMap();
-            var position = lines.getPosition(params.position.line + 1, params.position.character + 1);
+            var position = FileStore.offset(file, params.position.line, params.position.character);
             var path = new FindNameAt(task).scan(task.root(), position);
             if (path == null) return Rewrite.NOT_SUPPORTED;
             var el = Trees.instance(task.task).getElement(path);
@@ -517,13 +576,78 @@ class JavaLanguageServer extends LanguageServer {
         }
     }
 
+    @Override
+    public List<JavaCompileTimings> compileTimings() {
+        return CompileTimings.recent();
+    }
+
+    @Override
+    public void willHandle(String method) {
+        FileStore.startRequest();
+        CompileTimings.start(method);
+    }
+
+    @Override
+    public void handled(String method) {
+        CompileTimings.finish();
+    }
+
     @Override
     public void doAsyncWork() {
-        if (uncheckedChanges && FileStore.activeDocuments().contains(lastEdited)) {
-            lint(List.of(lastEdited));
-            uncheckedChanges = false;
+        FileStore.startRequest();
+        CompileTimings.start("doAsyncWork");
+        try {
+            applyWatchedChanges();
+            if (uncheckedChanges && FileStore.activeDocuments().contains(lastEdited)) {
+                lint(List.of(lastEdited));
+                uncheckedChanges = false;
+            }
+        } finally {
+            CompileTimings.finish();
         }
     }
 
+    @Override
+    public boolean doIdleWork() {
+        if (cacheCompiler == null) return false;
+        FileStore.startRequest();
+        CompileTimings.start("doIdleWork");
+        try {
+            // Warm up the documents the user is likely to look at next, then index and warm up the workspace
+            return applyWatchedChanges()
+                    || cacheCompiler.precompileOpenDocument()
+                    || symbolIndex.update()
+                    || cacheCompiler.indexIdentifiers()
+                    || cacheCompiler.generateClassCache();
+        } finally {
+            CompileTimings.finish();
+        }
+    }
+
+    @Override
+    public boolean doPeriodicWork() {
+        // The client may stay quiet for a long time, so don't wait for its next message to apply changes on disk
+        if (watcher == null) return false;
+        FileStore.startRequest();
+        CompileTimings.start("doPeriodicWork");
+        try {
+            return applyWatchedChanges();
+        } finally {
+            CompileTimings.finish();
+        }
+    }
+
+    /** Apply the changes the workspace watcher has seen, if we're watching. Returns true if there were any. */
+    private boolean applyWatchedChanges() {
+        if (watcher == null) return false;
+        var changes = watcher.poll();
+        if (changes.isEmpty()) return false;
+        LOG.info(String.format("Workspace watcher found %d changed files", changes.size()));
+        var params = new DidChangeWatchedFilesParams();
+        params.changes = changes;
+        didChangeWatchedFiles(params);
+        return true;
+    }
+
     private static final Logger LOG = Logger.getLogger("main");
 }
@@ -0,0 +1,73 @@
+package org.javacs;
+
+import java.util.Arrays;
+import org.javacs.lsp.Position;
+import org.javacs.lsp.Range;
+
+/**
+ * LineIndex converts between offsets in one version of a file and LSP positions. It records where each line starts
+ * and ends, so converting a position is an array lookup and converting an offset is a binary search. Lines end with
+ * \n, \r\n or \r, and characters are counted in UTF-16 code units, like LSP and java.lang.String do.
+ */
+public class LineIndex {
+    /** Offset of the first character of each line */
+    private final int[] starts;
+    /** Offset of the line terminator of each line, or the end of the text for the last line */
+    private final int[] ends;
+
+    private LineIndex(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public static LineIndex of(CharSequence text) {
+        var starts = new int[64];
+        var ends = new int[64];
+        var count = 0;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c != '\r' && c != '\n') continue;
+            if (count + 1 == starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[count] = i;
+            if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') i++;
+            starts[++count] = i + 1;
+        }
+        ends[count] = text.length();
+        return new LineIndex(Arrays.copyOf(starts, count + 1), Arrays.copyOf(ends, count + 1));
+    }
+
+    public int lineCount() {
+        return starts.length;
+    }
+
+    /** The offset of line and character, both 0-based, clamped to the end of the line and the end of the text */
+    public int offset(int line, int character) {
+        if (line < 0) return 0;
+        if (line >= starts.length) return ends[ends.length - 1];
+        return Math.min(starts[line] + Math.max(character, 0), ends[line]);
+    }
+
+    /** The 0-based line that contains offset */
+    public int line(int offset) {
+        var i = Arrays.binarySearch(starts, clamp(offset));
+        // In the middle of a line, binarySearch returns -(index of the next line) - 1
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public Position position(int offset) {
+        offset = clamp(offset);
+        var line = line(offset);
+        return new Position(line, offset - starts[line]);
+    }
+
+    public Range range(int start, int end) {
+        return new Range(position(start), position(end));
+    }
+
+    private int clamp(int offset) {
+        return Math.max(0, Math.min(offset, ends[ends.length - 1]));
+    }
+}
@@ -50,6 +50,11 @@ class Parser {
         return parseJavaFileObject(new SourceFileObject(file));
     }
 
+    /** Parse file without replacing the cached parse, for callers that visit many files once each */
+    static Parser parseFileUncached(Path file) {
+        return new Parser(new SourceFileObject(file));
+    }
+
     private static Parser cachedParse;
     private static long cachedModified = -1;
 
@@ -43,9 +43,20 @@ import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.DefinedBy;
 import com.sun.tools.javac.util.DefinedBy.Api;
 import com.sun.tools.javac.util.Log;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -53,6 +64,7 @@ import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
 
 /**
  * A pool of reusable JavacTasks. When a task is no valid anymore, it is returned to the pool, and its Context may be
@@ -72,6 +84,10 @@ import javax.tools.JavaFileObject;
  * <p>Care must also be taken when custom components are installed, as those are not cleaned when the task/context is
  * reused, and subsequent getTask may return a task based on a context with these custom components.
  *
+ * <p>A reused context keeps every class it has ever completed in its symbol table. When a context is old, has run many
+ * tasks, or the heap is still full after garbage collection, a fresh context is warmed up in the background and
+ * replaces it, so the old symbol table can be collected.
+ *
  * <p><b>This is NOT part of any supported API. If you write code that depends on this, you do so at your own risk. This
  * code and its internal interfaces are subject to change or deletion without notice.</b>
  */
@@ -80,14 +96,57 @@ class ReusableCompiler {
     private static final Logger LOG = Logger.getLogger("main");
     private static final JavacTool systemProvider = JavacTool.create();
 
-    private List<String> currentOptions = new ArrayList<>();
-    private ReusableContext currentContext;
-    private boolean checkedOut;
+    /** Contexts that aren't checked out by any task, and can be reused by the next task with the same options. */
+    private final List<ReusableContext> idle = new ArrayList<>();
+
+    /** Number of contexts checked out by each thread */
+    private final Map<Thread, Integer> checkedOut = new HashMap<>();
+
+    /** The most contexts that can exist at once, idle or checked out. Each one retains its own symbol table. */
+    private final int maxContexts;
+
+    /** Asks the owners of finished tasks to return their contexts early, and reports whether any were returned. */
+    private BooleanSupplier reclaim = () -> false;
+
+    /** Replace a context after it has run this many tasks */
+    int maxTasksPerContext = 500;
+
+    /** Replace a context after it has been alive this long */
+    Duration maxContextAge = Duration.ofHours(1);
+
+    /** Replace contexts that have run a few tasks if more than this fraction of the heap survives garbage collection */
+    double maxHeapAfterGc = 0.7;
+
+    private static final int MIN_TASKS_BEFORE_HEAP_RECYCLE = 20;
+
+    /** Builds replacements for worn-out contexts, one at a time so it doesn't compete with requests for CPU */
+    private final ExecutorService recycler =
+            Executors.newSingleThreadExecutor(
+                    runnable -> {
+                        var thread = new Thread(runnable, "recycle-compiler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    ReusableCompiler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    ReusableCompiler(int maxContexts) {
+        this.maxContexts = maxContexts;
+    }
+
+    /** Called when every context is checked out, before waiting for one to be returned. */
+    void onExhausted(BooleanSupplier reclaim) {
+        this.reclaim = reclaim;
+    }
 
     /**
      * Creates a new task as if by {@link javax.tools.JavaCompiler#getTask} and runs the provided worker with it. The
      * task is only valid while the worker is running. The internal structures may be reused from some previous
-     * compilation.
+     * compilation. Several tasks can be checked out at the same time, each with its own context. If every context is
+     * checked out, this first asks the onExhausted callback to return some, then waits until one is returned. A thread
+     * that is itself holding contexts can't wait, so it gets one over the limit.
      *
      * @param fileManager a file manager; if {@code null} use the compiler's standard filemanager
      * @param diagnosticListener a diagnostic listener; if {@code null} use the compiler's default method for reporting
@@ -107,33 +166,212 @@ class ReusableCompiler {
             Iterable<String> options,
             Iterable<String> classes,
             Iterable<? extends JavaFileObject> compilationUnits) {
-        if (checkedOut) {
-            throw new RuntimeException("Compiler is already in-use!");
-        }
-        checkedOut = true;
-        List<String> opts =
-                StreamSupport.stream(options.spliterator(), false).collect(Collectors.toCollection(ArrayList::new));
-        if (!opts.equals(currentOptions)) {
-            LOG.warning(String.format("Options changed from %s to %s, creating new compiler", options, opts));
-            currentOptions = opts;
-            currentContext = new ReusableContext(opts);
-        }
+        var context = checkOut(optionsList(options), () -> fileManager, true);
+        return startTask(context, fileManager, diagnosticListener, classes, compilationUnits);
+    }
+
+    /**
+     * Like {@link #getTask(JavaFileManager, DiagnosticListener, Iterable, Iterable, Iterable)}, but each context uses
+     * its own file manager, created by newFileManager when the context is created. File managers are not thread-safe,
+     * so this is the way to get tasks that run at the same time in different threads.
+     */
+    Borrow getTask(
+            Supplier<? extends JavaFileManager> newFileManager,
+            DiagnosticListener<? super JavaFileObject> diagnosticListener,
+            Iterable<String> options,
+            Iterable<String> classes,
+            Iterable<? extends JavaFileObject> compilationUnits) {
+        var context = checkOut(optionsList(options), newFileManager, false);
+        return startTask(context, context.fileManager, diagnosticListener, classes, compilationUnits);
+    }
+
+    private List<String> optionsList(Iterable<String> options) {
+        return StreamSupport.stream(options.spliterator(), false).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private Borrow startTask(
+            ReusableContext context,
+            JavaFileManager fileManager,
+            DiagnosticListener<? super JavaFileObject> diagnosticListener,
+            Iterable<String> classes,
+            Iterable<? extends JavaFileObject> compilationUnits) {
         JavacTaskImpl task =
                 (JavacTaskImpl)
                         systemProvider.getTask(
-                                null, fileManager, diagnosticListener, opts, classes, compilationUnits, currentContext);
+                                null,
+                                fileManager,
+                                diagnosticListener,
+                                context.arguments,
+                                classes,
+                                compilationUnits,
+                                context);
+
+        task.addTaskListener(context);
+        context.tasks++;
+
+        return new Borrow(task, context);
+    }
 
-        task.addTaskListener(currentContext);
+    private ReusableContext checkOut(
+            List<String> opts, Supplier<? extends JavaFileManager> newFileManager, boolean sharesFileManager) {
+        while (true) {
+            synchronized (this) {
+                var context = tryCheckOut(opts, newFileManager, sharesFileManager);
+                if (context != null) return context;
+            }
+            // Reclaim outside the lock, because returning a context needs the lock
+            if (reclaim.getAsBoolean()) continue;
+            synchronized (this) {
+                var context = tryCheckOut(opts, newFileManager, sharesFileManager);
+                if (context != null) return context;
+                // A thread that already holds a context can't wait for another one, or it would be waiting for itself.
+                // Nothing could be reclaimed, so go over the limit until this thread returns its contexts.
+                if (checkedOut.containsKey(Thread.currentThread())) {
+                    var message = "All %d compilers are in use by this thread, creating another";
+                    LOG.warning(String.format(message, maxContexts));
+                    checkedOut.merge(Thread.currentThread(), 1, Integer::sum);
+                    return new ReusableContext(opts, newFileManager, sharesFileManager);
+                }
+                LOG.info(String.format("All %d compilers are in use, waiting...", maxContexts));
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private ReusableContext tryCheckOut(
+            List<String> opts, Supplier<? extends JavaFileManager> newFileManager, boolean sharesFileManager) {
+        var thread = Thread.currentThread();
+        for (var i = idle.size() - 1; i >= 0; i--) {
+            if (idle.get(i).arguments.equals(opts)) {
+                checkedOut.merge(thread, 1, Integer::sum);
+                return idle.remove(i);
+            }
+        }
+        // Make room by dropping the least-recently-used idle context, which has different options
+        if (size() >= maxContexts && !idle.isEmpty()) {
+            idle.remove(0);
+        }
+        if (size() < maxContexts) {
+            LOG.info(String.format("No idle compiler with options %s, creating new compiler", opts));
+            checkedOut.merge(thread, 1, Integer::sum);
+            return new ReusableContext(opts, newFileManager, sharesFileManager);
+        }
+        return null;
+    }
 
-        return new Borrow(task, currentContext);
+    private synchronized void checkIn(ReusableContext context, Thread thread) {
+        checkedOut.computeIfPresent(thread, (__, count) -> count == 1 ? null : count - 1);
+        notifyAll();
+        // A context that has been replaced is dropped as soon as its last task is finished
+        if (context.retired) return;
+        if (context.replaces != null) {
+            context.replaces.retired = true;
+            idle.remove(context.replaces);
+            context.replaces = null;
+        }
+        if (context.replacing || !isWornOut(context)) {
+            idle.add(context);
+        } else if (context.sharesFileManager) {
+            // The file manager may be in use by another task, so there's no way to warm up a replacement in the
+            // background. Drop the context, and the next task will create a new one.
+            LOG.info(String.format("Dropping compiler that ran %d tasks", context.tasks));
+        } else {
+            idle.add(context);
+            context.replacing = true;
+            recycler.execute(() -> replace(context));
+        }
+        while (size() > maxContexts && !idle.isEmpty()) {
+            idle.remove(0);
+        }
+    }
+
+    private boolean isWornOut(ReusableContext context) {
+        if (context.tasks >= maxTasksPerContext) return true;
+        if (Duration.ofNanos(System.nanoTime() - context.created).compareTo(maxContextAge) > 0) return true;
+        return context.tasks >= MIN_TASKS_BEFORE_HEAP_RECYCLE && heapAfterGc() > maxHeapAfterGc;
+    }
+
+    /** The fraction of the heap that was still in use after the most recent garbage collection of each pool */
+    private static double heapAfterGc() {
+        long used = 0;
+        for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            var usage = pool.getCollectionUsage();
+            if (usage != null) used += usage.getUsed();
+        }
+        return (double) used / Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Warm up a fresh context with the same options as old, and swap it in when it's ready. Until then, old keeps
+     * serving requests, so no request has to wait for a cold compiler.
+     */
+    private void replace(ReusableContext old) {
+        var age = Duration.ofNanos(System.nanoTime() - old.created);
+        var message = "Replacing compiler that ran %d tasks in %d minutes, %.0f%% of heap used after GC";
+        LOG.info(String.format(message, old.tasks, age.toMinutes(), heapAfterGc() * 100));
+        // The fresh context counts against maxContexts from now on, like any other checked-out context
+        synchronized (this) {
+            checkedOut.merge(Thread.currentThread(), 1, Integer::sum);
+        }
+        var fresh = new ReusableContext(old.arguments, old.newFileManager, false);
+        fresh.replaces = old;
+        Borrow borrow = null;
+        try {
+            borrow = startTask(fresh, fresh.fileManager, __ -> {}, List.of(), List.of(new WarmUpSource()));
+            borrow.task.analyze();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to warm up replacement compiler", e);
+            // Keep using old, and try again the next time it's returned
+            synchronized (this) {
+                old.replacing = false;
+                fresh.replaces = null;
+                fresh.retired = true;
+            }
+        } finally {
+            if (borrow != null) {
+                borrow.close();
+            } else {
+                checkIn(fresh, Thread.currentThread());
+            }
+        }
+    }
+
+    /** A tiny source file that loads the core classes of java.lang into a fresh context */
+    private static class WarmUpSource extends SimpleJavaFileObject {
+        WarmUpSource() {
+            super(URI.create("string:///WarmUp.java"), Kind.SOURCE);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return "class WarmUp { String warmUp(Object o) { return o.toString() + 1; } }";
+        }
+    }
+
+    private int size() {
+        var size = idle.size();
+        for (var count : checkedOut.values()) {
+            size += count;
+        }
+        return size;
     }
 
     class Borrow implements AutoCloseable {
         final JavacTask task;
+        final JavaFileManager fileManager;
+        private final ReusableContext context;
+        private final Thread thread = Thread.currentThread();
         boolean closed;
 
-        Borrow(JavacTask task, ReusableContext ctx) {
+        Borrow(JavacTask task, ReusableContext context) {
             this.task = task;
+            this.fileManager = context.fileManager;
+            this.context = context;
         }
 
         @Override
@@ -141,7 +379,7 @@ class ReusableCompiler {
             if (closed) return;
             // not returning the context to the pool if task crashes with an exception
             // the task/context may be in a broken state
-            currentContext.clear();
+            context.clear();
             try {
                 var method = JavacTaskImpl.class.getDeclaredMethod("cleanup");
                 method.setAccessible(true);
@@ -149,7 +387,7 @@ class ReusableCompiler {
             } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
                 throw new RuntimeException(e);
             }
-            checkedOut = false;
+            checkIn(context, thread);
             closed = true;
         }
     }
@@ -157,10 +395,31 @@ class ReusableCompiler {
     static class ReusableContext extends Context implements TaskListener {
 
         List<String> arguments;
-
-        ReusableContext(List<String> arguments) {
+        final Supplier<? extends JavaFileManager> newFileManager;
+        final JavaFileManager fileManager;
+        /** Indicates that every task brings its own file manager, which may be shared with other contexts */
+        final boolean sharesFileManager;
+        /** Times the phases of the current task, for CompileTimings */
+        private CompileTimer timer = new CompileTimer();
+        /** When this context was created, and how many tasks it has run since, so the pool can replace it */
+        final long created = System.nanoTime();
+        int tasks;
+        /** Set while a replacement for this context is warming up */
+        boolean replacing;
+        /** Set when this context has been replaced, so it isn't returned to the pool */
+        boolean retired;
+        /** The worn-out context that this one will replace once it's warmed up */
+        ReusableContext replaces;
+
+        ReusableContext(
+                List<String> arguments,
+                Supplier<? extends JavaFileManager> newFileManager,
+                boolean sharesFileManager) {
             super();
             this.arguments = arguments;
+            this.newFileManager = newFileManager;
+            this.fileManager = newFileManager.get();
+            this.sharesFileManager = sharesFileManager;
             put(Log.logKey, ReusableLog.factory);
             put(JavaCompiler.compilerKey, ReusableJavaCompiler.factory);
         }
@@ -174,6 +433,7 @@ class ReusableCompiler {
             drop(JavacTask.class);
             drop(JavacTrees.class);
             drop(JavacElements.class);
+            timer = new CompileTimer();
 
             if (ht.get(Log.logKey) instanceof ReusableLog) {
                 // log already inited - not first round
@@ -192,13 +452,13 @@ class ReusableCompiler {
         @Override
         @DefinedBy(Api.COMPILER_TREE)
         public void finished(TaskEvent e) {
-            // do nothing
+            timer.finished(e);
         }
 
         @Override
         @DefinedBy(Api.COMPILER_TREE)
         public void started(TaskEvent e) {
-            // do nothing
+            timer.started(e);
         }
 
         <T> void drop(Key<T> k) {
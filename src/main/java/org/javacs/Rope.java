@@ -0,0 +1,218 @@
+package org.javacs;
+
+/**
+ * Rope is an immutable string stored as a balanced tree of short chunks. Each node knows its length and how many
+ * newlines it contains, so replacing a range or finding the start of a line takes O(log n) time, instead of copying
+ * the whole text. Edits share all the unchanged chunks with the rope they were made from. Like LineIndex, lines end
+ * with \n, \r\n or \r, and a \r\n may be split between two chunks.
+ */
+final class Rope implements CharSequence {
+    /** Longest chunk that of creates, and longest chunk that concat will merge small chunks into */
+    private static final int MAX_LEAF = 512;
+
+    static final Rope EMPTY = new Rope("");
+
+    /** Text of a leaf, or null if this is a node */
+    private final String leaf;
+
+    private final Rope left, right;
+    private final int length, newlines, depth;
+    /** Whether the text starts with \n or ends with \r, which are one line break if they meet in a concatenation */
+    private final boolean startsWithLf, endsWithCr;
+
+    private Rope(String leaf) {
+        this.leaf = leaf;
+        this.left = null;
+        this.right = null;
+        this.length = leaf.length();
+        this.newlines = countNewlines(leaf);
+        this.depth = 0;
+        this.startsWithLf = leaf.startsWith("\n");
+        this.endsWithCr = leaf.endsWith("\r");
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.leaf = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.newlines = left.newlines + right.newlines - (splitsCrLf(left, right) ? 1 : 0);
+        this.depth = 1 + Math.max(left.depth, right.depth);
+        this.startsWithLf = left.startsWithLf;
+        this.endsWithCr = right.endsWithCr;
+    }
+
+    static Rope of(String text) {
+        if (text.length() <= MAX_LEAF) return new Rope(text);
+        return build(text, 0, text.length());
+    }
+
+    private static Rope build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) return new Rope(text.substring(start, end));
+        var middle = (start + end) >>> 1;
+        return new Rope(build(text, start, middle), build(text, middle, end));
+    }
+
+    /** Replace the text from start to end with text */
+    Rope replace(int start, int end, String text) {
+        start = clamp(start);
+        end = Math.max(start, clamp(end));
+        var before = split(this, start)[0];
+        var after = split(this, end)[1];
+        return concat(concat(before, of(text)), after);
+    }
+
+    /** The offset of line and character, both 0-based, clamped to the end of the line and the end of the text */
+    int offset(int line, int character) {
+        var start = lineStart(line);
+        var offset = start;
+        while (offset < length && offset - start < character && !isLineBreak(charAt(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    /** The offset of the first character of line, which is 0-based, or the length of the text if there is no line */
+    int lineStart(int line) {
+        if (line <= 0) return 0;
+        if (line > newlines) return length;
+        var node = this;
+        var offset = 0;
+        while (node.leaf == null) {
+            // The \r of a split \r\n is counted on the left, and the \n is not counted on the right
+            var split = splitsCrLf(node.left, node.right);
+            if (line < node.left.newlines || (line == node.left.newlines && !split)) {
+                node = node.left;
+            } else if (line == node.left.newlines) {
+                return offset + node.left.length + 1;
+            } else {
+                line -= node.left.newlines - (split ? 1 : 0);
+                offset += node.left.length;
+                node = node.right;
+            }
+        }
+        var text = node.leaf;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (!isLineBreak(c) || (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')) continue;
+            if (--line == 0) return offset + i + 1;
+        }
+        return offset + text.length();
+    }
+
+    /** Number of lines, which is one more than the number of newlines */
+    int lineCount() {
+        return newlines + 1;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        var node = this;
+        while (node.leaf == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.leaf.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /** Copy the whole text into a string, which takes O(n) time */
+    @Override
+    public String toString() {
+        if (leaf != null) return leaf;
+        var builder = new StringBuilder(length);
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    private void appendTo(StringBuilder builder) {
+        if (leaf != null) {
+            builder.append(leaf);
+        } else {
+            left.appendTo(builder);
+            right.appendTo(builder);
+        }
+    }
+
+    private int clamp(int offset) {
+        return Math.max(0, Math.min(offset, length));
+    }
+
+    /** Join a and b, keeping the tree balanced like an AVL tree */
+    private static Rope concat(Rope a, Rope b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        if (a.leaf != null && b.leaf != null && a.length + b.length <= MAX_LEAF) {
+            return new Rope(a.leaf + b.leaf);
+        }
+        if (a.depth > b.depth + 1) return balance(a.left, concat(a.right, b));
+        if (b.depth > a.depth + 1) return balance(concat(a, b.left), b.right);
+        return new Rope(a, b);
+    }
+
+    /** Join left and right, whose depths differ by at most 2, rotating if they differ by 2 */
+    private static Rope balance(Rope left, Rope right) {
+        if (left.depth > right.depth + 1) {
+            if (left.left.depth >= left.right.depth) {
+                return new Rope(left.left, new Rope(left.right, right));
+            }
+            var middle = left.right;
+            return new Rope(new Rope(left.left, middle.left), new Rope(middle.right, right));
+        }
+        if (right.depth > left.depth + 1) {
+            if (right.right.depth >= right.left.depth) {
+                return new Rope(new Rope(left, right.left), right.right);
+            }
+            var middle = right.left;
+            return new Rope(new Rope(left, middle.left), new Rope(middle.right, right.right));
+        }
+        return new Rope(left, right);
+    }
+
+    /** Split rope into the text before offset and the text after it */
+    private static Rope[] split(Rope rope, int offset) {
+        if (offset <= 0) return new Rope[] {EMPTY, rope};
+        if (offset >= rope.length) return new Rope[] {rope, EMPTY};
+        if (rope.leaf != null) {
+            return new Rope[] {new Rope(rope.leaf.substring(0, offset)), new Rope(rope.leaf.substring(offset))};
+        }
+        if (offset <= rope.left.length) {
+            var parts = split(rope.left, offset);
+            return new Rope[] {parts[0], concat(parts[1], rope.right)};
+        }
+        var parts = split(rope.right, offset - rope.left.length);
+        return new Rope[] {concat(rope.left, parts[0]), parts[1]};
+    }
+
+    /** Count \n, and \r that isn't followed by \n, so \r\n counts once */
+    private static int countNewlines(String text) {
+        var count = 0;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n'))) count++;
+        }
+        return count;
+    }
+
+    private static boolean splitsCrLf(Rope left, Rope right) {
+        return left.endsWithCr && right.startsWithLf;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+}
@@ -1,14 +1,35 @@
 package org.javacs;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.logging.Logger;
 import javax.tools.*;
+import org.javacs.completion.PruneMethodBodies;
 
 class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    /**
+     * If set, source files that javac finds on the source path are handed to javac with their method bodies erased,
+     * unless they are roots of the batch being compiled. Javac only needs their signatures, and skipping their method
+     * bodies makes compilation much faster when a file pulls in many siblings.
+     */
+    boolean pruneImplicitSources;
+
+    /**
+     * If set, workspace sources that have up-to-date class files in classCache are found on the class path instead of
+     * the source path, so javac doesn't have to parse them. Roots of the current batch are always compiled from source.
+     */
+    ClassOutputCache classCache;
+
+    /** If set, class files that javac generates are written to classCache */
+    boolean generateToClassCache;
+
+    /** The files that are being compiled by the current batch */
+    private Set<Path> batchRoots = Set.of();
+
     SourceFileManager() {
         super(createDelegateFileManager());
     }
@@ -26,21 +47,84 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
     public Iterable<JavaFileObject> list(
             Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
         if (location == StandardLocation.SOURCE_PATH) {
-            var stream = FileStore.list(packageName).stream().map(this::asJavaFileObject);
+            var stream = FileStore.list(packageName).stream().filter(f -> !isCached(f)).map(this::asJavaFileObject);
             return stream::iterator;
+        } else if (location == StandardLocation.CLASS_PATH && classCache != null) {
+            var list = new ArrayList<JavaFileObject>();
+            super.list(location, packageName, kinds, recurse).forEach(list::add);
+            if (kinds.contains(JavaFileObject.Kind.CLASS)) {
+                for (var f : FileStore.list(packageName)) {
+                    if (isCached(f)) {
+                        list.addAll(classCache.classFiles(f));
+                    }
+                }
+            }
+            return list;
         } else {
             return super.list(location, packageName, kinds, recurse);
         }
     }
 
+    private boolean isCached(Path file) {
+        return classCache != null && !batchRoots.contains(file) && classCache.has(file);
+    }
+
+    /** Start a new batch, so that files besides roots can be pruned */
+    void setBatchRoots(Collection<? extends JavaFileObject> roots) {
+        var paths = new HashSet<Path>();
+        for (var r : roots) {
+            if (r.toUri().getScheme().equals("file")) {
+                paths.add(Paths.get(r.toUri()));
+            }
+        }
+        batchRoots = paths;
+    }
+
     private JavaFileObject asJavaFileObject(Path file) {
-        // TODO erase method bodies of files that are not open
+        if (pruneImplicitSources && !batchRoots.contains(file)) {
+            return new PrunedSourceFileObject(file);
+        }
         return new SourceFileObject(file);
     }
 
+    /** A source file that javac sees with its method bodies erased. The text is only pruned if javac reads the file. */
+    private static class PrunedSourceFileObject extends SourceFileObject {
+        PrunedSourceFileObject(Path path) {
+            super(path);
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(pruned(path).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Reader openReader(boolean ignoreEncodingErrors) {
+            return new StringReader(pruned(path));
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return pruned(path);
+        }
+    }
+
+    private static final Cache<Void, String> cachePruned = new Cache<>();
+
+    private static synchronized String pruned(Path file) {
+        if (cachePruned.needs(file, null)) {
+            var parse = Parser.parseFileUncached(file);
+            var contents = new PruneMethodBodies(parse.task).scan(parse.root, -1L).toString();
+            cachePruned.load(file, null, contents);
+        }
+        return cachePruned.get(file, null);
+    }
+
     @Override
     public String inferBinaryName(Location location, JavaFileObject file) {
-        if (location == StandardLocation.SOURCE_PATH) {
+        if (file instanceof ClassOutputCache.CachedClassFile) {
+            return ((ClassOutputCache.CachedClassFile) file).binaryName();
+        } else if (location == StandardLocation.SOURCE_PATH) {
             var source = (SourceFileObject) file;
             var packageName = FileStore.packageName(source.path);
             var className = removeExtension(source.path.getFileName().toString());
@@ -70,7 +154,7 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
             var simpleClassName = StringSearch.lastName(className);
             for (var f : FileStore.list(packageName)) {
                 if (f.getFileName().toString().equals(simpleClassName + kind.extension)) {
-                    return new SourceFileObject(f);
+                    return asJavaFileObject(f);
                 }
             }
             // Fall through to disk in case we have .jar or .zip files on the source path
@@ -78,6 +162,15 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
         return super.getJavaFileForInput(location, className, kind);
     }
 
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+            Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (generateToClassCache && location == StandardLocation.CLASS_OUTPUT && sibling instanceof SourceFileObject) {
+            return classCache.output(((SourceFileObject) sibling).path, className);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
     @Override
     public FileObject getFileForInput(Location location, String packageName, String relativeName) throws IOException {
         if (location == StandardLocation.SOURCE_PATH) {
@@ -91,6 +184,8 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
         if (location == StandardLocation.SOURCE_PATH) {
             var source = (SourceFileObject) file;
             return FileStore.contains(source.path);
+        } else if (file instanceof ClassOutputCache.CachedClassFile) {
+            return location == StandardLocation.CLASS_PATH;
         } else {
             return super.contains(location, file);
         }
@@ -2,6 +2,7 @@ package org.javacs;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Instant;
 import javax.lang.model.element.Modifier;
@@ -29,7 +30,7 @@ public class SourceFileObject implements JavaFileObject {
 
     @Override
     public boolean equals(Object other) {
-        if (other.getClass() != SourceFileObject.class) return false;
+        if (!(other instanceof SourceFileObject)) return false;
         var that = (SourceFileObject) other;
         return this.path.equals(that.path);
     }
@@ -82,7 +83,7 @@ public class SourceFileObject implements JavaFileObject {
     @Override
     public InputStream openInputStream() {
         if (contents != null) {
-            var bytes = contents.getBytes();
+            var bytes = contents.getBytes(StandardCharsets.UTF_8);
             return new ByteArrayInputStream(bytes);
         }
         return FileStore.inputStream(path);
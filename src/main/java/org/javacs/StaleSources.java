@@ -0,0 +1,75 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * StaleSources keeps track of which workspace sources an index has read, and the modified time of the version it
+ * read, so the index can find the sources it needs to read again. Comparing every source in a big workspace takes a
+ * while, so it's only done after something in FileStore has changed. Not thread-safe, indexes synchronize on
+ * themselves.
+ */
+class StaleSources {
+    /** indexed[file] is the modified time of the version of file that was indexed */
+    private final Map<Path, Long> indexed = new HashMap<>();
+    /** Sources found to be stale when FileStore.generation() was checked, minus the ones indexed since */
+    private final Set<Path> stale = new LinkedHashSet<>();
+    private long checked = -1;
+
+    /**
+     * The sources that have been added or modified since they were indexed. Sources that were indexed but are no longer
+     * in FileStore are forgotten, and passed to removed so the index can forget them too.
+     */
+    List<Path> check(Consumer<Path> removed) {
+        recheck(removed);
+        return new ArrayList<>(stale);
+    }
+
+    /** Check if file has been added or modified since it was indexed, like check but for one file */
+    boolean isStale(Path file, Consumer<Path> removed) {
+        recheck(removed);
+        return stale.contains(file) || !indexed.containsKey(file);
+    }
+
+    private void recheck(Consumer<Path> removed) {
+        var generation = FileStore.generation();
+        if (generation == checked) return;
+        checked = generation;
+        stale.clear();
+        FileStore.forEachModified(
+                (file, modified) -> {
+                    var time = indexed.get(file);
+                    if (time == null || time != modified.toEpochMilli()) stale.add(file);
+                });
+        forgetRemoved(removed);
+    }
+
+    /** Remember that the version of file that was modified at modified has been indexed */
+    void indexed(Path file, long modified) {
+        indexed.put(file, modified);
+        stale.remove(file);
+    }
+
+    boolean isIndexed(Path file) {
+        return indexed.containsKey(file);
+    }
+
+    private void forgetRemoved(Consumer<Path> removed) {
+        // Every source in FileStore is either indexed or stale, so if the counts add up nothing was removed
+        var unindexed = 0;
+        for (var f : stale) {
+            if (!indexed.containsKey(f)) unindexed++;
+        }
+        var all = FileStore.all();
+        if (indexed.size() + unindexed == all.size()) return;
+        var keep = new HashSet<Path>(all);
+        var it = indexed.keySet().iterator();
+        while (it.hasNext()) {
+            var f = it.next();
+            if (keep.contains(f)) continue;
+            it.remove();
+            removed.accept(f);
+        }
+    }
+}
@@ -198,7 +198,6 @@ public class StringSearch {
 
     private static final ByteBuffer SEARCH_BUFFER = ByteBuffer.allocateDirect(1024 * 1024);
 
-    // TODO cache the progress made by searching shorter queries
     static boolean containsWordMatching(Path java, String query) {
         if (FileStore.activeDocuments().contains(java)) {
             var text = FileStore.contents(java);
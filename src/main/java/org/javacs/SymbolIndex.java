@@ -0,0 +1,494 @@
+package org.javacs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.javacs.index.FindSymbolsMatching;
+import org.javacs.lsp.*;
+
+/**
+ * SymbolIndex keeps the classes, methods and fields declared in every workspace source, so workspace/symbol can match
+ * names without reading and parsing the workspace. Each file is indexed with the modified time it had when it was
+ * parsed, and is indexed again when that changes. The index is saved in the user's cache directory, so after a restart
+ * only files that changed while the server was down have to be parsed again.
+ */
+class SymbolIndex {
+    private static final int FORMAT = 1;
+    /** If no more than this many files are stale, search indexes them before answering */
+    private static final int REFRESH_LIMIT = 100;
+    /** How long update indexes files before it lets the server handle requests again */
+    private static final long UPDATE_MILLIS = 100;
+    /** How often search reports matches it finds in files that haven't been indexed yet */
+    private static final long REPORT_MILLIS = 100;
+    /** Save the index at least this often while it's being built, so a restart doesn't lose all the work */
+    private static final long SAVE_MILLIS = 60_000;
+
+    /** Where the index is saved, or null if it isn't */
+    private final Path file;
+
+    private final Map<Path, Indexed> files = new HashMap<>();
+    private final StaleSources sources = new StaleSources();
+    /** What the last search found, so the next search can start from it if it extends the same query */
+    private Cursor cursor;
+    private boolean loaded, dirty;
+    private long lastSave = System.currentTimeMillis();
+
+    /** The symbols declared in one file, and the modified time of the version they came from */
+    private static class Indexed {
+        final long modified;
+        final Symbol[] symbols;
+
+        Indexed(long modified, Symbol[] symbols) {
+            this.modified = modified;
+            this.symbols = symbols;
+        }
+    }
+
+    private static class Symbol {
+        final String name, container;
+        final int kind, startLine, startCharacter, endLine, endCharacter;
+        /** Bit c - 'a' is set if name contains the letter c, in any case, and bit 26 if it contains anything else */
+        final int chars;
+        /** Like chars, but only for the first letter of each word of name */
+        final int initials;
+
+        Symbol(String name, String container, int kind, int startLine, int startCharacter, int endLine,
+                int endCharacter) {
+            this.name = name;
+            this.container = container;
+            this.kind = kind;
+            this.startLine = startLine;
+            this.startCharacter = startCharacter;
+            this.endLine = endLine;
+            this.endCharacter = endCharacter;
+            this.chars = mask(name);
+            this.initials = initialsMask(name);
+        }
+
+        Range range() {
+            return new Range(new Position(startLine, startCharacter), new Position(endLine, endCharacter));
+        }
+    }
+
+    private static class Match {
+        final Path file;
+        final Symbol symbol;
+        final int score;
+
+        Match(Path file, Symbol symbol, int score) {
+            this.file = file;
+            this.symbol = symbol;
+            this.score = score;
+        }
+    }
+
+    /**
+     * The symbols that matched a query, and the unindexed files whose text didn't. Anything that matches a query also
+     * matches every prefix of it, so a search for a longer query only has to look at these.
+     */
+    private static class Cursor {
+        final String query;
+        /** files[i] is an indexed file with symbols that match query, and matches[i] is those symbols */
+        final List<Path> files = new ArrayList<>();
+        final List<Symbol[]> matches = new ArrayList<>();
+        /** Files that have been indexed again or forgotten since, whose matches are out of date */
+        final Set<Path> changed = new HashSet<>();
+        /** Unindexed files that don't contain a word matching query, when FileStore was at generation */
+        final Set<Path> misses = new HashSet<>();
+        final long generation = FileStore.generation();
+
+        Cursor(String query) {
+            this.query = query;
+        }
+    }
+
+    SymbolIndex(Path file) {
+        this.file = file;
+    }
+
+    /** The index of the workspace with roots, in the user's cache directory */
+    static SymbolIndex inUserCache(Set<Path> roots) {
+        var dir = UserCache.dir("symbols");
+        return new SymbolIndex(dir.resolve(ClassOutputCache.sha1(new TreeSet<>(roots).toString())));
+    }
+
+    /**
+     * The best limit symbols whose names match query: exact matches, then prefixes, then camel-case matches like FB for
+     * FooBar. Files that changed since they were indexed are indexed again first, unless there are too many, in which
+     * case their old symbols are used, and files that were never indexed are only indexed if their text matches.
+     */
+    synchronized List<SymbolInformation> search(String query, int limit) {
+        var unindexed = refresh();
+        var best = best(query, limit);
+        indexMatching(unindexed, query, limit - best.size(), best::addAll);
+        return sortedInfos(best, limit);
+    }
+
+    /**
+     * Like search, but reports matches in batches while it searches: first the best matches among the files that are
+     * already indexed, then matches in files that haven't been indexed yet, as they're indexed. Each batch is sorted,
+     * but later batches can have better matches than earlier ones.
+     */
+    synchronized void search(String query, int limit, Consumer<List<SymbolInformation>> report) {
+        var unindexed = refresh();
+        var best = best(query, limit);
+        if (!best.isEmpty()) report.accept(infos(best));
+        // Send matches from newly indexed files every so often, instead of one report per file
+        var pending = new ArrayList<Match>();
+        var remaining = new int[] {limit - best.size()};
+        var lastReport = new long[] {System.currentTimeMillis()};
+        indexMatching(
+                unindexed,
+                query,
+                remaining[0],
+                found -> {
+                    pending.addAll(found);
+                    if (System.currentTimeMillis() - lastReport[0] < REPORT_MILLIS) return;
+                    lastReport[0] = System.currentTimeMillis();
+                    var batch = sortedInfos(pending, remaining[0]);
+                    remaining[0] -= batch.size();
+                    pending.clear();
+                    if (!batch.isEmpty()) report.accept(batch);
+                });
+        var batch = sortedInfos(pending, remaining[0]);
+        if (!batch.isEmpty()) report.accept(batch);
+    }
+
+    /** Load the index and index stale files, if there aren't too many. Returns the files that are still unindexed. */
+    private List<Path> refresh() {
+        load();
+        var changed = staleFiles();
+        var unindexed = new ArrayList<Path>();
+        for (var f : changed) {
+            if (changed.size() <= REFRESH_LIMIT || FileStore.activeDocuments().contains(f)) {
+                index(f);
+            } else if (!files.containsKey(f)) {
+                unindexed.add(f);
+            }
+        }
+        return unindexed;
+    }
+
+    /** The best limit matches for query among indexed files, best first. Starts from the last cursor if it can. */
+    private List<Match> best(String query, int limit) {
+        var started = System.nanoTime();
+        // Look at what matched the last query if this one extends it, otherwise at everything
+        var previous = cursor != null && query.startsWith(cursor.query) ? cursor : null;
+        var searchFiles = new ArrayList<Path>();
+        var searchSymbols = new ArrayList<Symbol[]>();
+        if (previous != null) {
+            for (var i = 0; i < previous.files.size(); i++) {
+                if (previous.changed.contains(previous.files.get(i))) continue;
+                searchFiles.add(previous.files.get(i));
+                searchSymbols.add(previous.matches.get(i));
+            }
+            for (var f : previous.changed) {
+                var indexed = files.get(f);
+                if (indexed == null) continue;
+                searchFiles.add(f);
+                searchSymbols.add(indexed.symbols);
+            }
+        } else {
+            for (var entry : files.entrySet()) {
+                searchFiles.add(entry.getKey());
+                searchSymbols.add(entry.getValue().symbols);
+            }
+        }
+        var next = new Cursor(query);
+        // Files whose text didn't match the last query can't match this one either, until something changes
+        if (previous != null && previous.generation == next.generation) {
+            next.misses.addAll(previous.misses);
+        }
+        var queryChars = mask(query);
+        var queryInitial = query.isEmpty() ? 0 : initialsMask(query.substring(0, 1));
+        // Keep the best limit matches, with the worst at the head so it can be replaced
+        var best = new PriorityQueue<Match>(limit + 1, (a, b) -> compare(b, a));
+        var candidates = 0;
+        var found = new ArrayList<Symbol>();
+        for (var i = 0; i < searchFiles.size(); i++) {
+            var file = searchFiles.get(i);
+            var symbols = searchSymbols.get(i);
+            found.clear();
+            for (var s : symbols) {
+                // Cheap test that rules out most symbols before the real match
+                if ((s.chars & queryChars) != queryChars || (s.initials & queryInitial) != queryInitial) continue;
+                candidates++;
+                if (!StringSearch.matchesTitleCase(s.name, query)) continue;
+                found.add(s);
+                var match = new Match(file, s, score(s.name, query));
+                if (best.size() == limit && compare(match, best.peek()) >= 0) continue;
+                best.add(match);
+                if (best.size() > limit) best.poll();
+            }
+            if (found.isEmpty()) continue;
+            next.files.add(file);
+            next.matches.add(found.size() == symbols.length ? symbols : found.toArray(new Symbol[found.size()]));
+        }
+        cursor = next;
+        var matches = new ArrayList<Match>(best);
+        matches.sort(SymbolIndex::compare);
+        var elapsed = (System.nanoTime() - started) / 1_000_000;
+        LOG.info(
+                String.format(
+                        "Found %d symbols matching `%s` among %d candidates in %d files (%d ms)",
+                        matches.size(), query, candidates, searchFiles.size(), elapsed));
+        return matches;
+    }
+
+    /** The best limit of matches, best first */
+    private static List<SymbolInformation> sortedInfos(List<Match> matches, int limit) {
+        matches.sort(SymbolIndex::compare);
+        return infos(matches.subList(0, Math.min(matches.size(), limit)));
+    }
+
+    private static List<SymbolInformation> infos(List<Match> matches) {
+        var result = new ArrayList<SymbolInformation>();
+        for (var m : matches) {
+            result.add(info(m.file, m.symbol));
+        }
+        return result;
+    }
+
+    /** Index stale files for a short time. Returns true if there are more stale files to index. */
+    synchronized boolean update() {
+        var started = System.currentTimeMillis();
+        load();
+        var changed = staleFiles();
+        var count = 0;
+        for (var f : changed) {
+            if (System.currentTimeMillis() - started > UPDATE_MILLIS) {
+                LOG.info(String.format("Indexed symbols in %d files, %d files to go", count, changed.size() - count));
+                if (System.currentTimeMillis() - lastSave > SAVE_MILLIS) save();
+                return true;
+            }
+            index(f);
+            count++;
+        }
+        if (count > 0) LOG.info(String.format("Indexed symbols in %d files", count));
+        if (dirty) save();
+        return false;
+    }
+
+    /** Files whose symbols haven't been indexed since they were last modified. Forgets files that no longer exist. */
+    private List<Path> staleFiles() {
+        return sources.check(
+                removed -> {
+                    files.remove(removed);
+                    if (cursor != null) cursor.changed.add(removed);
+                    dirty = true;
+                });
+    }
+
+    /**
+     * Index the files in unindexed that contain words matching query, until limit of their symbols match. Each file
+     * that has matching symbols is passed to found.
+     */
+    private void indexMatching(List<Path> unindexed, String query, int limit, Consumer<List<Match>> found) {
+        if (unindexed.isEmpty() || limit <= 0) return;
+        LOG.info(String.format("...%d files haven't been indexed yet, searching them", unindexed.size()));
+        // best just made the cursor for query, so it's safe to remember misses in it
+        var misses = cursor.generation == FileStore.generation();
+        var count = 0;
+        for (var f : unindexed) {
+            if (count >= limit) break;
+            if (misses && cursor.misses.contains(f)) continue;
+            if (!StringSearch.containsWordMatching(f, query)) {
+                if (misses) cursor.misses.add(f);
+                continue;
+            }
+            var matches = new ArrayList<Match>();
+            for (var s : index(f).symbols) {
+                if (StringSearch.matchesTitleCase(s.name, query)) matches.add(new Match(f, s, score(s.name, query)));
+            }
+            count += matches.size();
+            if (!matches.isEmpty()) found.accept(matches);
+        }
+    }
+
+    /** Index the symbols in file. If file can't be read, it's indexed as empty, so it doesn't fail every search. */
+    private Indexed index(Path file) {
+        var modified = FileStore.modified(file).toEpochMilli();
+        var found = new ArrayList<SymbolInformation>();
+        try {
+            var parse = Parser.parseFileUncached(file);
+            new FindSymbolsMatching(new ParseTask(parse.task, parse.root), "").scan(parse.root, found);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Can't index symbols in " + file, e);
+            found.clear();
+        }
+        var symbols = new Symbol[found.size()];
+        for (var i = 0; i < symbols.length; i++) {
+            var info = found.get(i);
+            var range = info.location.range;
+            symbols[i] =
+                    new Symbol(
+                            info.name,
+                            info.containerName,
+                            info.kind,
+                            range.start.line,
+                            range.start.character,
+                            range.end.line,
+                            range.end.character);
+        }
+        var indexed = new Indexed(modified, symbols);
+        files.put(file, indexed);
+        sources.indexed(file, modified);
+        if (cursor != null) cursor.changed.add(file);
+        dirty = true;
+        return indexed;
+    }
+
+    private static SymbolInformation info(Path file, Symbol symbol) {
+        var info = new SymbolInformation();
+        info.name = symbol.name;
+        info.kind = symbol.kind;
+        info.location = new Location(file.toUri(), symbol.range());
+        info.containerName = symbol.container;
+        return info;
+    }
+
+    /** Lower scores are better matches */
+    private static int score(String name, String query) {
+        if (name.equals(query)) return 0;
+        if (name.equalsIgnoreCase(query)) return 1;
+        if (name.startsWith(query)) return 2;
+        if (name.regionMatches(true, 0, query, 0, query.length())) return 3;
+        return 4;
+    }
+
+    /** Better matches first, then types before members, then shorter names */
+    private static int compare(Match a, Match b) {
+        if (a.score != b.score) return Integer.compare(a.score, b.score);
+        var aKind = kindOrder(a.symbol.kind);
+        var bKind = kindOrder(b.symbol.kind);
+        if (aKind != bKind) return Integer.compare(aKind, bKind);
+        var aName = a.symbol.name;
+        var bName = b.symbol.name;
+        if (aName.length() != bName.length()) return Integer.compare(aName.length(), bName.length());
+        var byName = aName.compareTo(bName);
+        if (byName != 0) return byName;
+        return a.file.compareTo(b.file);
+    }
+
+    /** Types first, then methods, then fields */
+    private static int kindOrder(int kind) {
+        switch (kind) {
+            case SymbolKind.Class:
+            case SymbolKind.Interface:
+            case SymbolKind.Enum:
+                return 0;
+            case SymbolKind.Method:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    private static int mask(String name) {
+        var mask = 0;
+        for (var i = 0; i < name.length(); i++) {
+            mask |= bit(name.charAt(i));
+        }
+        return mask;
+    }
+
+    /** Letters that matchesTitleCase can match the first letter of a query to: the start, and upper-case letters */
+    private static int initialsMask(String name) {
+        var mask = 0;
+        for (var i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            if (i == 0 || Character.isUpperCase(c)) mask |= bit(c);
+        }
+        return mask;
+    }
+
+    private static int bit(char c) {
+        c = Character.toLowerCase(c);
+        if (c >= 'a' && c <= 'z') return 1 << (c - 'a');
+        return 1 << 26;
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (file == null || !Files.exists(file)) return;
+        var started = System.currentTimeMillis();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) return;
+            var count = in.readInt();
+            for (var f = 0; f < count; f++) {
+                var path = Paths.get(in.readUTF());
+                var modified = in.readLong();
+                var symbols = new Symbol[in.readInt()];
+                for (var s = 0; s < symbols.length; s++) {
+                    symbols[s] =
+                            new Symbol(
+                                    in.readUTF(),
+                                    in.readUTF(),
+                                    in.readByte(),
+                                    in.readInt(),
+                                    in.readInt(),
+                                    in.readInt(),
+                                    in.readInt());
+                }
+                files.put(path, new Indexed(modified, symbols));
+                sources.indexed(path, modified);
+            }
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't read symbol index %s: %s", file, e.getMessage()));
+            files.clear();
+            return;
+        }
+        var elapsed = System.currentTimeMillis() - started;
+        LOG.info(String.format("Loaded symbols of %,d files from %s (%d ms)", files.size(), file, elapsed));
+    }
+
+    private void save() {
+        dirty = false;
+        lastSave = System.currentTimeMillis();
+        if (file == null) return;
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            // Another server may be saving the same index, so each save writes its own file and then swaps it in
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT);
+                out.writeInt(files.size());
+                for (var f : files.keySet()) {
+                    var indexed = files.get(f);
+                    out.writeUTF(f.toString());
+                    out.writeLong(indexed.modified);
+                    out.writeInt(indexed.symbols.length);
+                    for (var s : indexed.symbols) {
+                        out.writeUTF(s.name);
+                        out.writeUTF(s.container);
+                        out.writeByte(s.kind);
+                        out.writeInt(s.startLine);
+                        out.writeInt(s.startCharacter);
+                        out.writeInt(s.endLine);
+                        out.writeInt(s.endCharacter);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't save symbol index %s: %s", file, e.getMessage()));
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path tmp) {
+        if (tmp == null) return;
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't delete %s: %s", tmp, e.getMessage()));
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
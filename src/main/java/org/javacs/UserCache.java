@@ -0,0 +1,19 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * UserCache is where the server keeps what it saves between runs: workspace snapshots, symbol indexes and class files.
+ * It is ~/.cache/java-language-server unless the org.javacs.cache property says otherwise, which is how the tests keep
+ * out of the user's real cache.
+ */
+class UserCache {
+    /** The directory named name in the cache */
+    static Path dir(String name) {
+        var root = System.getProperty("org.javacs.cache");
+        if (root != null) return Paths.get(root).resolve(name);
+        var home = Paths.get(System.getProperty("user.home"));
+        return home.resolve(".cache").resolve("java-language-server").resolve(name);
+    }
+}
@@ -0,0 +1,103 @@
+package org.javacs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * WorkspaceSnapshot saves the modified time, size and package of every source file in a workspace root, so the next
+ * time the server starts it can fill FileStore without reading every file. Files are grouped by package, so the
+ * package index can be rebuilt as the snapshot is read. A snapshot may be out of date, so FileStore checks it against
+ * the disk after loading it.
+ */
+class WorkspaceSnapshot {
+    private static final int FORMAT = 1;
+
+    private final Path dir;
+
+    WorkspaceSnapshot(Path dir) {
+        this.dir = dir;
+    }
+
+    /** The snapshots of all workspaces, in the user's cache directory */
+    static WorkspaceSnapshot inUserCache() {
+        return new WorkspaceSnapshot(UserCache.dir("workspaces"));
+    }
+
+    /** The files in root when it was saved, or null if there is no usable snapshot of root */
+    Map<Path, FileStore.Info> load(Path root) {
+        var file = snapshotFile(root);
+        if (!Files.exists(file)) return null;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT || !in.readUTF().equals(root.toString())) return null;
+            var infos = new HashMap<Path, FileStore.Info>();
+            var packages = in.readInt();
+            for (var p = 0; p < packages; p++) {
+                var packageName = in.readUTF();
+                var files = in.readInt();
+                for (var f = 0; f < files; f++) {
+                    var path = root.resolve(in.readUTF());
+                    var modified = Instant.ofEpochMilli(in.readLong());
+                    var size = in.readLong();
+                    infos.put(path, new FileStore.Info(modified, size, packageName));
+                }
+            }
+            return infos;
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't read snapshot of %s: %s", root, e.getMessage()));
+            return null;
+        }
+    }
+
+    /** Replace the snapshot of root with infos, which are the files in root */
+    void save(Path root, Map<Path, FileStore.Info> infos) {
+        var byPackage = new TreeMap<String, List<Path>>();
+        for (var f : infos.keySet()) {
+            byPackage.computeIfAbsent(infos.get(f).packageName, __ -> new ArrayList<>()).add(f);
+        }
+        var file = snapshotFile(root);
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            // Another server may be saving the same workspace, so each save writes its own file and then swaps it in
+            tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT);
+                out.writeUTF(root.toString());
+                out.writeInt(byPackage.size());
+                for (var packageName : byPackage.keySet()) {
+                    var files = byPackage.get(packageName);
+                    out.writeUTF(packageName);
+                    out.writeInt(files.size());
+                    for (var f : files) {
+                        var info = infos.get(f);
+                        out.writeUTF(root.relativize(f).toString());
+                        out.writeLong(info.modified.toEpochMilli());
+                        out.writeLong(info.size);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't save snapshot of %s: %s", root, e.getMessage()));
+            deleteQuietly(tmp);
+        }
+    }
+
+    private Path snapshotFile(Path root) {
+        return dir.resolve(ClassOutputCache.sha1(root.toString()));
+    }
+
+    private static void deleteQuietly(Path tmp) {
+        if (tmp == null) return;
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            LOG.warning(String.format("Can't delete %s: %s", tmp, e.getMessage()));
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -0,0 +1,175 @@
+package org.javacs;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import org.javacs.lsp.FileChangeType;
+import org.javacs.lsp.FileEvent;
+
+/**
+ * WorkspaceWatcher watches the workspace roots for changes to files, for clients that don't send
+ * workspace/didChangeWatchedFiles. Events are collected when poll is called, and only handed out once no new events
+ * have arrived for a short time, so a burst like a git checkout becomes one batch with one event per file.
+ */
+class WorkspaceWatcher implements AutoCloseable {
+    /** How long the workspace has to be quiet before a batch of changes is handed out */
+    private static final long QUIET_MILLIS = 200;
+    /** Hand out changes after this long even if the workspace is never quiet */
+    private static final long MAX_DELAY_MILLIS = 2_000;
+
+    private final WatchService watcher;
+    private final Predicate<Path> watch;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    /** Changes that haven't been handed out yet, in the order they first happened */
+    private final Map<Path, Integer> pending = new LinkedHashMap<>();
+
+    private long firstPending, lastPending;
+    private boolean warnedLimit;
+
+    /** Watch every directory under roots for changes to files that match watch */
+    WorkspaceWatcher(Collection<Path> roots, Predicate<Path> watch) {
+        try {
+            this.watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.watch = watch;
+        var started = System.currentTimeMillis();
+        for (var root : roots) {
+            register(root, false);
+        }
+        var elapsed = System.currentTimeMillis() - started;
+        LOG.info(String.format("Watching %,d directories for changes (%d ms)", dirs.size(), elapsed));
+    }
+
+    /**
+     * Collect the events that have happened since the last call, and return them if the workspace has been quiet for
+     * long enough. Otherwise, or if nothing has happened, return an empty list. Never blocks.
+     */
+    List<FileEvent> poll() {
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            var dir = dirs.get(key);
+            for (var event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    LOG.warning("Missed some changes in " + dir + ", checking it again");
+                    register(dir, true);
+                    continue;
+                }
+                var file = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && isDirectory(file)) {
+                    // Files may have been created before we started watching the new directory
+                    register(file, true);
+                } else if (event.kind() == ENTRY_CREATE) {
+                    add(file, FileChangeType.Created);
+                } else if (event.kind() == ENTRY_MODIFY) {
+                    add(file, FileChangeType.Changed);
+                } else if (event.kind() == ENTRY_DELETE) {
+                    deleted(file);
+                }
+            }
+            if (!key.reset()) {
+                dirs.remove(key);
+            }
+        }
+        if (pending.isEmpty()) return List.of();
+        var now = System.currentTimeMillis();
+        if (now - lastPending < QUIET_MILLIS && now - firstPending < MAX_DELAY_MILLIS) return List.of();
+        var events = new ArrayList<FileEvent>();
+        for (var file : pending.keySet()) {
+            var event = new FileEvent();
+            event.uri = file.toUri();
+            event.type = pending.get(file);
+            events.add(event);
+        }
+        pending.clear();
+        return events;
+    }
+
+    /** Merge a change to file with any change that is already pending, so each file has one event */
+    private void add(Path file, int type) {
+        if (!watch.test(file)) return;
+        var previous = pending.get(file);
+        if (previous != null && previous == FileChangeType.Created && type == FileChangeType.Changed) {
+            type = FileChangeType.Created;
+        } else if (previous != null && previous == FileChangeType.Deleted && type == FileChangeType.Created) {
+            type = FileChangeType.Changed;
+        }
+        var now = System.currentTimeMillis();
+        if (pending.isEmpty()) firstPending = now;
+        lastPending = now;
+        pending.put(file, type);
+    }
+
+    /** file was deleted, and if it was a directory, everything in it was deleted too */
+    private void deleted(Path file) {
+        add(file, FileChangeType.Deleted);
+        for (var f : FileStore.filesIn(file).keySet()) {
+            add(f, FileChangeType.Deleted);
+        }
+    }
+
+    /** Watch dir and the directories in it. If created, report the files in them as created. */
+    private void register(Path dir, boolean created) {
+        try {
+            Files.walkFileTree(
+                    dir,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) {
+                            // .git and friends change constantly during a checkout, and never contain sources
+                            var hidden = subdir.getFileName().toString().startsWith(".");
+                            if (hidden && !subdir.equals(dir)) return FileVisitResult.SKIP_SUBTREE;
+                            try {
+                                dirs.put(subdir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), subdir);
+                            } catch (IOException e) {
+                                warnLimit(e);
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            // Like FindJavaSources, don't follow links to directories
+                            if (created && attrs.isRegularFile()) add(file, FileChangeType.Created);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            LOG.warning("Can't watch " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /** The OS limits how many directories can be watched, so the rest of the workspace goes unwatched */
+    private void warnLimit(IOException e) {
+        if (warnedLimit) return;
+        LOG.warning("Can't watch any more directories: " + e.getMessage());
+        warnedLimit = true;
+    }
+
+    private static boolean isDirectory(Path file) {
+        return Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
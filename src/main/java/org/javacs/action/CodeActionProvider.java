@@ -37,8 +37,7 @@ public class CodeActionProvider {
         try (var task = compiler.compile(file)) {
             var elapsed = Duration.between(started, Instant.now()).toMillis();
             LOG.info(String.format("...compiled in %d ms", elapsed));
-            var lines = task.root().getLineMap();
-            var cursor = lines.getPosition(params.range.start.line + 1, params.range.start.character + 1);
+            var cursor = FileStore.offset(file, params.range.start.line, params.range.start.character);
             rewrites.putAll(overrideInheritedMethods(task, file, cursor));
         }
         var actions = new ArrayList<CodeAction>();
@@ -193,8 +192,8 @@ public class CodeActionProvider {
     }
 
     private int findPosition(CompileTask task, Position position) {
-        var lines = task.root().getLineMap();
-        return (int) lines.getPosition(position.line + 1, position.character + 1);
+        var file = Paths.get(task.root().getSourceFile().toUri());
+        return (int) FileStore.offset(file, position.line, position.character);
     }
 
     private String findClassNeedingConstructor(CompileTask task, Range range) {
@@ -210,7 +209,7 @@ public class CodeActionProvider {
     }
 
     private ClassTree findClassTree(CompileTask task, Range range) {
-        var position = task.root().getLineMap().getPosition(range.start.line + 1, range.start.character + 1);
+        long position = findPosition(task, range.start);
         return new FindTypeDeclarationAt(task.task).scan(task.root(), position);
     }
 
@@ -243,7 +242,7 @@ public class CodeActionProvider {
 
     private MethodPtr findMethod(CompileTask task, Range range) {
         var trees = Trees.instance(task.task);
-        var position = task.root().getLineMap().getPosition(range.start.line + 1, range.start.character + 1);
+        long position = findPosition(task, range.start);
         var tree = new FindMethodDeclarationAt(task.task).scan(task.root(), position);
         var path = trees.getPath(task.root(), tree);
         var method = (ExecutableElement) trees.getElement(path);
@@ -298,8 +297,8 @@ public class CodeActionProvider {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        var start = (int) task.root().getLineMap().getPosition(range.start.line + 1, range.start.character + 1);
-        var end = (int) task.root().getLineMap().getPosition(range.end.line + 1, range.end.character + 1);
+        var start = findPosition(task, range.start);
+        var end = findPosition(task, range.end);
         return contents.subSequence(start, end);
     }
 
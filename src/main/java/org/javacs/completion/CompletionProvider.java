@@ -124,7 +124,7 @@ public class CompletionProvider {
         LOG.info("Complete at " + file.getFileName() + "(" + line + "," + column + ")...");
         var started = Instant.now();
         var task = compiler.parse(file);
-        var cursor = task.root.getLineMap().getPosition(line, column);
+        var cursor = FileStore.offset(file, line - 1, column - 1);
         var contents = new PruneMethodBodies(task.task).scan(task.root, cursor);
         var endOfLine = endOfLine(contents, (int) cursor);
         contents.insert(endOfLine, ';');
@@ -20,8 +20,10 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.*;
+import org.javacs.CompileProfile;
 import org.javacs.CompileTask;
 import org.javacs.CompilerProvider;
+import org.javacs.FileStore;
 import org.javacs.FindHelper;
 import org.javacs.MarkdownHelper;
 import org.javacs.hover.ShortTypePrinter;
@@ -41,8 +43,8 @@ public class SignatureProvider {
 
     public SignatureHelp signatureHelp(Path file, int line, int column) {
         // TODO prune
-        try (var task = compiler.compile(file)) {
-            var cursor = task.root().getLineMap().getPosition(line, column);
+        try (var task = compiler.compile(CompileProfile.ATTRIBUTE, file)) {
+            var cursor = FileStore.offset(file, line - 1, column - 1);
             var path = new FindInvocationAt(task.task).scan(task.root(), cursor);
             if (path == null) return NOT_SUPPORTED;
             if (path.getLeaf() instanceof MethodInvocationTree) {
@@ -9,9 +9,11 @@ import java.util.List;
 import java.util.StringJoiner;
 import java.util.logging.Logger;
 import javax.lang.model.element.*;
+import org.javacs.CompileProfile;
 import org.javacs.CompileTask;
 import org.javacs.CompilerProvider;
 import org.javacs.CompletionData;
+import org.javacs.FileStore;
 import org.javacs.FindHelper;
 import org.javacs.JsonHelper;
 import org.javacs.MarkdownHelper;
@@ -29,8 +31,8 @@ public class HoverProvider {
     }
 
     public List<MarkedString> hover(Path file, int line, int column) {
-        try (var task = compiler.compile(file)) {
-            var position = task.root().getLineMap().getPosition(line, column);
+        try (var task = compiler.compile(CompileProfile.ATTRIBUTE, file)) {
+            var position = FileStore.offset(file, line - 1, column - 1);
             var element = new FindHoverElement(task.task).scan(task.root(), position);
             if (element == null) return NOT_SUPPORTED;
             var list = new ArrayList<MarkedString>();
@@ -12,14 +12,14 @@ import org.javacs.lsp.Range;
 import org.javacs.lsp.SymbolInformation;
 import org.javacs.lsp.SymbolKind;
 
-class FindSymbolsMatching extends TreePathScanner<Void, List<SymbolInformation>> {
+public class FindSymbolsMatching extends TreePathScanner<Void, List<SymbolInformation>> {
 
     private final ParseTask task;
     private final String query;
     private CompilationUnitTree root;
     private CharSequence containerName;
 
-    FindSymbolsMatching(ParseTask task, String query) {
+    public FindSymbolsMatching(ParseTask task, String query) {
         this.task = task;
         this.query = query;
     }
@@ -83,7 +83,7 @@ class FindSymbolsMatching extends TreePathScanner<Void, List<SymbolInformation>>
         return null;
     }
 
-    private static Integer asSymbolKind(Tree.Kind k) {
+    private static int asSymbolKind(Tree.Kind k) {
         switch (k) {
             case ANNOTATION_TYPE:
             case CLASS:
@@ -101,7 +101,8 @@ class FindSymbolsMatching extends TreePathScanner<Void, List<SymbolInformation>>
                 // where we only return fields, not local variables
                 return SymbolKind.Field;
             default:
-                return null;
+                // Kinds of class that are newer than JDK 13, like records
+                return SymbolKind.Class;
         }
     }
 
@@ -0,0 +1,23 @@
+package org.javacs.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Time javac spent in each phase while the server handled one request, in response to java/compileTimings */
+public class JavaCompileTimings {
+    /** The LSP method of the request */
+    public String method;
+    public long totalMs;
+    /** Milliseconds in each phase, for example PARSE or ANALYZE */
+    public Map<String, Long> phaseMs = new LinkedHashMap<>();
+    /** The files javac spent the most time on, slowest first */
+    public List<FileTimings> files = new ArrayList<>();
+
+    public static class FileTimings {
+        public String file;
+        public long totalMs;
+        public Map<String, Long> phaseMs = new LinkedHashMap<>();
+    }
+}
@@ -178,6 +178,7 @@ public class LSP {
         var server = serverFactory.apply(new RealClient(send));
         var pending = new ArrayBlockingQueue<Message>(10);
         var endOfStream = new Message();
+        server.watchMessages(() -> !pending.isEmpty());
 
         // Read messages and process cancellations on a separate thread
         class MessageReader implements Runnable {
@@ -226,12 +227,14 @@ public class LSP {
         // Process messages on main thread
         LOG.info("Reading messages from queue...");
         var hasAsyncWork = false;
+        var hasIdleWork = true;
         processMessages:
         while (true) {
             Message r;
             try {
-                // Take a break periodically
-                r = pending.poll(200, TimeUnit.MILLISECONDS);
+                // Take a break periodically, unless there is idle work to get on with
+                var wait = hasIdleWork && !hasAsyncWork ? 0 : 200;
+                r = pending.poll(wait, TimeUnit.MILLISECONDS);
             } catch (Exception e) {
                 LOG.log(Level.SEVERE, e.getMessage(), e);
                 continue;
@@ -243,14 +246,25 @@ public class LSP {
             }
             // If poll(_) failed, loop again
             if (r == null) {
-                if (hasAsyncWork) {
-                    server.doAsyncWork();
-                    hasAsyncWork = false;
+                try {
+                    if (hasAsyncWork) {
+                        server.doAsyncWork();
+                        hasAsyncWork = false;
+                    } else if (hasIdleWork) {
+                        hasIdleWork = server.doIdleWork();
+                    } else {
+                        hasIdleWork = server.doPeriodicWork();
+                    }
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                    hasIdleWork = false;
                 }
                 continue;
             }
             // Otherwise, process the new message
             hasAsyncWork = true;
+            hasIdleWork = true;
+            server.willHandle(r.method);
             try {
                 switch (r.method) {
                     case "initialize":
@@ -443,6 +457,12 @@ public class LSP {
                             respond(send, r.id, response);
                             break;
                         }
+                    case "java/compileTimings":
+                        {
+                            var response = server.compileTimings();
+                            respond(send, r.id, response);
+                            break;
+                        }
                     case "$/cancelRequest":
                         // Already handled in peek(message)
                         break;
@@ -454,6 +474,8 @@ public class LSP {
                 if (r.id != null) {
                     error(send, r.id, new ResponseError(ErrorCodes.InternalError, e.getMessage(), null));
                 }
+            } finally {
+                server.handled(r.method);
             }
         }
     }
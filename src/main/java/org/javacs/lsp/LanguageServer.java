@@ -2,8 +2,11 @@ package org.javacs.lsp;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BooleanSupplier;
 
 public class LanguageServer {
+    private BooleanSupplier messagesWaiting = () -> false;
+
     public InitializeResult initialize(InitializeParams params) {
         throw new RuntimeException("Unimplemented");
     }
@@ -116,5 +119,41 @@ public class LanguageServer {
         throw new RuntimeException("Unimplemented");
     }
 
+    public List<JavaCompileTimings> compileTimings() {
+        throw new RuntimeException("Unimplemented");
+    }
+
+    /** Called before each message is handled, on the thread that handles it */
+    public void willHandle(String method) {}
+
+    /** Called after each message is handled, even if it failed */
+    public void handled(String method) {}
+
     public void doAsyncWork() {}
+
+    /**
+     * Called repeatedly while there are no messages waiting, after doAsyncWork. Each call should do a short piece of
+     * work, so messages don't wait long, and return false when there is nothing left to do until the next message.
+     */
+    public boolean doIdleWork() {
+        return false;
+    }
+
+    /**
+     * Called about every 200 ms while no messages arrive and there is no idle work left, to pick up changes that don't
+     * come from the client, like files changing on disk. Returns true if doIdleWork has something to do again.
+     */
+    public boolean doPeriodicWork() {
+        return false;
+    }
+
+    /** Called by LSP.connect with a check for messages that have arrived and are waiting to be handled */
+    void watchMessages(BooleanSupplier messagesWaiting) {
+        this.messagesWaiting = messagesWaiting;
+    }
+
+    /** Check if messages are waiting, so idle work that takes a while can stop early and leave the rest for later */
+    public boolean messagesWaiting() {
+        return messagesWaiting.getAsBoolean();
+    }
 }
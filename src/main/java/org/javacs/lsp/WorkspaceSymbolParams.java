@@ -1,7 +1,11 @@
 package org.javacs.lsp;
 
+import com.google.gson.JsonElement;
+
 public class WorkspaceSymbolParams {
     public String query;
+    /** If the client set this, results can be sent early as $/progress notifications with this token */
+    public JsonElement partialResultToken;
 
     public WorkspaceSymbolParams() {}
 
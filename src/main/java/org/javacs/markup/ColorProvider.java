@@ -11,6 +11,8 @@ public class ColorProvider {
     }
 
     public SemanticColors[] colors() {
+        // Most method bodies are missing from a partial compile, so keep the colors from the last full compile
+        if (task.partial) return new SemanticColors[0];
         var colors = new SemanticColors[task.roots.size()];
         for (int i = 0; i < task.roots.size(); i++) {
             var root = task.roots.get(i);
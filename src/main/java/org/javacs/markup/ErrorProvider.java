@@ -27,6 +27,8 @@ public class ErrorProvider {
             result[i] = new PublishDiagnosticsParams();
             result[i].uri = root.getSourceFile().toUri();
             result[i].diagnostics.addAll(compilerErrors(root));
+            // Most method bodies are missing from a partial compile, so everything would look unused
+            if (task.partial) continue;
             result[i].diagnostics.addAll(unusedWarnings(root));
             result[i].diagnostics.addAll(notThrownWarnings(root));
         }
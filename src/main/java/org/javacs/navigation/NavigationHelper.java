@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import org.javacs.CompileTask;
+import org.javacs.FileStore;
 import org.javacs.FindNameAt;
 
 class NavigationHelper {
@@ -13,7 +14,7 @@ class NavigationHelper {
         for (var root : task.roots) {
             if (root.getSourceFile().toUri().equals(file.toUri())) {
                 var trees = Trees.instance(task.task);
-                var cursor = root.getLineMap().getPosition(line, column);
+                var cursor = FileStore.offset(file, line - 1, column - 1);
                 var path = new FindNameAt(task).scan(root, cursor);
                 if (path == null) return null;
                 return trees.getElement(path);
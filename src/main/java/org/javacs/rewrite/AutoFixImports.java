@@ -4,6 +4,7 @@ import com.sun.source.util.Trees;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -78,7 +79,10 @@ public class AutoFixImports implements Rewrite {
                 }
             }
             if (candidates.isEmpty()) continue;
-            if (candidates.size() > 1) {
+            // If one candidate is imported by more files than the others, it's probably the one the user means
+            candidates.sort(Comparator.comparingInt(compiler::countImporters).reversed());
+            if (candidates.size() > 1
+                    && compiler.countImporters(candidates.get(0)) == compiler.countImporters(candidates.get(1))) {
                 LOG.warning("..." + className + " is ambiguous between " + String.join(", ", candidates));
                 continue;
             }
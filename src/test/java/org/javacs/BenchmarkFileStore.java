@@ -0,0 +1,72 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+public class BenchmarkFileStore {
+    private static final int PACKAGES = 400, FILES_PER_PACKAGE = 50;
+
+    @State(Scope.Benchmark)
+    public static class WorkspaceState {
+        public Path root;
+        public String packageName = "org.example.p" + (PACKAGES / 2);
+        public Path file;
+
+        // A workspace with 20,000 files
+        @Setup(Level.Trial)
+        public void createWorkspace() throws IOException {
+            root = Files.createTempDirectory("benchmark-file-store");
+            var src = root.resolve("src/main/java");
+            for (var p = 0; p < PACKAGES; p++) {
+                var packageName = "org.example.p" + p;
+                var dir = src.resolve(packageName.replace('.', '/'));
+                Files.createDirectories(dir);
+                for (var f = 0; f < FILES_PER_PACKAGE; f++) {
+                    var className = "C" + f;
+                    var contents = String.format("package %s;\n\nclass %s {}\n", packageName, className);
+                    Files.writeString(dir.resolve(className + ".java"), contents);
+                }
+            }
+            FileStore.setWorkspaceRoots(Set.of(root));
+            file = FileStore.list(packageName).get(0);
+        }
+    }
+
+    @Benchmark
+    public List<Path> list(WorkspaceState state) {
+        return FileStore.list(state.packageName);
+    }
+
+    /** How list(packageName) used to work, before FileStore indexed files by package */
+    @Benchmark
+    public List<Path> listByScanning(WorkspaceState state) {
+        var list = new ArrayList<Path>();
+        for (var file : FileStore.all()) {
+            if (FileStore.packageName(file).equals(state.packageName)) {
+                list.add(file);
+            }
+        }
+        return list;
+    }
+
+    @Benchmark
+    public Set<Path> sourceRoots(WorkspaceState state) {
+        return FileStore.sourceRoots();
+    }
+
+    @Benchmark
+    public void externalChange(WorkspaceState state) {
+        FileStore.externalChange(state.file);
+    }
+}
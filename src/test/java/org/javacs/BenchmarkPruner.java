@@ -1,5 +1,6 @@
 package org.javacs;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Collections;
@@ -19,7 +20,7 @@ public class BenchmarkPruner {
     public static class CompilerState {
         public SourceFileObject file = file(false);
         public SourceFileObject pruned = file(true);
-        public JavaCompilerService compiler = createCompiler();
+        public JavaCompilerService compiler = createCompiler(true);
 
         private SourceFileObject file(boolean prune) {
             var file = Paths.get("src/main/java/org/javacs/InferConfig.java").normalize();
@@ -31,17 +32,34 @@ public class BenchmarkPruner {
                 return new SourceFileObject(file);
             }
         }
+    }
 
-        private static JavaCompilerService createCompiler() {
-            LOG.info("Create new compiler...");
+    @State(Scope.Benchmark)
+    public static class PackageState {
+        // JavaLanguageServer pulls in most of the org.javacs package through the source path
+        public Path file = Paths.get("src/main/java/org/javacs/JavaLanguageServer.java").normalize();
+        public JavaCompilerService pruneImplicit, plainImplicit;
 
-            var workspaceRoot = Paths.get(".").normalize().toAbsolutePath();
-            FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
-            var classPath = new InferConfig(workspaceRoot).classPath();
-            return new JavaCompilerService(classPath, Collections.emptySet(), Collections.emptySet());
+        // Javac keeps the classes it loaded from the source path between compilations,
+        // so use new compilers each iteration to measure how long it takes to load them.
+        @Setup(Level.Iteration)
+        public void createCompilers() {
+            pruneImplicit = createCompiler(true);
+            plainImplicit = createCompiler(false);
         }
     }
 
+    private static JavaCompilerService createCompiler(boolean pruneImplicitSources) {
+        LOG.info("Create new compiler...");
+
+        var workspaceRoot = Paths.get(".").normalize().toAbsolutePath();
+        FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        var classPath = new InferConfig(workspaceRoot).classPath();
+        var compiler = new JavaCompilerService(classPath, Collections.emptySet(), Collections.emptySet());
+        compiler.pruneImplicitSources = pruneImplicitSources;
+        return compiler;
+    }
+
     @Benchmark
     public void parsePlain(CompilerState state) {
         Parser.parseJavaFileObject(state.file);
@@ -57,5 +75,21 @@ public class BenchmarkPruner {
         state.compiler.compile(List.of(state.file)).close();
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void compilePackagePruned(PackageState state) {
+        state.pruneImplicit.compile(state.file).close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void compilePackagePlain(PackageState state) {
+        state.plainImplicit.compile(state.file).close();
+    }
+
     private static final Logger LOG = Logger.getLogger("main");
 }
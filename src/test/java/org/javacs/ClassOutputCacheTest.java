@@ -0,0 +1,112 @@
+package org.javacs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassOutputCacheTest {
+    private Path root, dir;
+    private ClassOutputCache cache;
+
+    @Before
+    public void createWorkspace() throws IOException {
+        root = Files.createTempDirectory("class-output-cache");
+        write("a/A.java", "package a;\npublic class A {\n    public static final int X = 1;\n}\n");
+        write("b/B.java", "package b;\nimport a.A;\nclass B {\n    int x = A.X;\n}\n");
+        write("c/C.java", "package c;\nclass C {}\n");
+        FileStore.setWorkspaceRoots(Set.of(root));
+        dir = Files.createTempDirectory("class-output-cache-classes");
+        cache = new ClassOutputCache(dir, List.of("-g"), new ImportGraph());
+    }
+
+    @After
+    public void restoreWorkspace() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    private void write(String name, String contents) throws IOException {
+        var file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, contents);
+    }
+
+    private void touch(String name) throws IOException {
+        var file = root.resolve(name);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+        FileStore.externalChange(file);
+    }
+
+    @Test
+    public void dependencyChangesInvalidate() throws IOException {
+        var b = root.resolve("b/B.java");
+        cache.output(b, "b.B");
+        cache.commit(b);
+        assertTrue(cache.has(b));
+        touch("c/C.java");
+        assertTrue(cache.has(b));
+        touch("a/A.java");
+        assertFalse(cache.has(b));
+    }
+
+    @Test
+    public void transitiveDependencyChangesInvalidate() throws IOException {
+        write("d/D.java", "package d;\nimport b.*;\nclass D {}\n");
+        FileStore.externalCreate(root.resolve("d/D.java"));
+        var d = root.resolve("d/D.java");
+        cache.output(d, "d.D");
+        cache.commit(d);
+        assertTrue(cache.has(d));
+        touch("a/A.java");
+        assertFalse(cache.has(d));
+    }
+
+    @Test
+    public void qualifiedNameChangesInvalidate() throws IOException {
+        write("e/E.java", "package e;\nclass E {\n    int x = a.A.X;\n}\n");
+        FileStore.externalCreate(root.resolve("e/E.java"));
+        var e = root.resolve("e/E.java");
+        cache.output(e, "e.E");
+        cache.commit(e);
+        assertTrue(cache.has(e));
+        touch("c/C.java");
+        assertTrue(cache.has(e));
+        touch("a/A.java");
+        assertFalse(cache.has(e));
+        assertTrue(cache.isStale(e));
+    }
+
+    @Test
+    public void optionsAreKeptApart() {
+        var b = root.resolve("b/B.java");
+        cache.output(b, "b.B");
+        cache.commit(b);
+        var other = new ClassOutputCache(dir, List.of("-g", "--add-exports", "x/y=ALL-UNNAMED"), new ImportGraph());
+        assertFalse(other.has(b));
+    }
+
+    @Test
+    public void evictUnused() throws IOException {
+        var b = root.resolve("b/B.java");
+        cache.output(b, "b.B");
+        cache.commit(b);
+        var old = Files.createDirectories(dir.resolve("old-options").resolve("old-key"));
+        var longAgo = FileTime.from(Instant.now().minus(Duration.ofDays(100)));
+        Files.setLastModifiedTime(old, longAgo);
+        Files.setLastModifiedTime(old.getParent(), longAgo);
+        assertTrue(cache.evictUnused());
+        assertFalse(Files.exists(old.getParent()));
+        assertTrue(cache.has(b));
+        assertFalse(cache.evictUnused());
+    }
+}
@@ -1,9 +1,17 @@
 package org.javacs;
 
-import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.javacs.lsp.*;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -19,4 +27,218 @@ public class FileStoreTest {
         var file = FindResource.path("/org/javacs/example/Goto.java");
         assertThat(FileStore.suggestedPackageName(file), equalTo("org.javacs.example"));
     }
+
+    @Test
+    public void listPackage() {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        var root = FindResource.path("/");
+        assertThat(FileStore.list("org.javacs.example"), hasItem(file));
+        assertThat(FileStore.sourceRoots(), hasItem(root));
+        FileStore.externalDelete(file);
+        try {
+            assertThat(FileStore.list("org.javacs.example"), not(hasItem(file)));
+        } finally {
+            FileStore.externalCreate(file);
+        }
+        assertThat(FileStore.list("org.javacs.example"), hasItem(file));
+        assertThat(FileStore.list("org.javacs.nosuchpackage"), empty());
+    }
+
+    @Test
+    public void scanWorkspace() throws IOException {
+        var root = Files.createTempDirectory("scan-workspace");
+        for (var p = 0; p < 10; p++) {
+            var dir = root.resolve("src/org/example/p" + p);
+            Files.createDirectories(dir);
+            for (var f = 0; f < 10; f++) {
+                Files.writeString(dir.resolve("C" + f + ".java"), "package org.example.p" + p + ";\n");
+            }
+        }
+        var messages = new ArrayList<String>();
+        FileStore.setWorkspaceRoots(Set.of(root), progress -> messages.add(progress.getMessage()));
+        assertThat(messages, hasItems("Finding source files", "Reading 100 source files"));
+        assertThat(FileStore.list("org.example.p3"), hasSize(10));
+        assertThat(FileStore.sourceRoots(), contains(root.resolve("src").toAbsolutePath().normalize()));
+    }
+
+    @Test
+    public void cacheClosedContents() throws IOException {
+        var dir = Files.createTempDirectory("cache-closed-contents");
+        var file = dir.resolve("Cached.java");
+        Files.writeString(file, "class Cached {}");
+        FileStore.startRequest();
+        var first = FileStore.contents(file);
+        assertThat(FileStore.contents(file), sameInstance(first));
+        // Changes on disk are seen by the next request, and until then bytes come from the same copy as the text
+        Files.writeString(file, "class Cached { int changed; }");
+        assertThat(FileStore.inputStream(file).readAllBytes(), equalTo("class Cached {}".getBytes()));
+        FileStore.startRequest();
+        assertThat(FileStore.contents(file), equalTo("class Cached { int changed; }"));
+        // Big files are mapped instead of read, but the text is the same
+        var big = new StringBuilder("class Cached {\n");
+        for (var i = 0; i < 20_000; i++) {
+            big.append("    int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        big.append("}\n");
+        Files.writeString(file, big);
+        FileStore.startRequest();
+        assertThat(FileStore.contents(file), equalTo(big.toString()));
+    }
+
+    @Test
+    public void loadSnapshot() throws IOException {
+        var root = Files.createTempDirectory("snapshot-workspace").toAbsolutePath().normalize();
+        var dir = root.resolve("src/org/example");
+        Files.createDirectories(dir);
+        var moved = dir.resolve("Moved.java");
+        var deleted = dir.resolve("Deleted.java");
+        var created = dir.resolve("Created.java");
+        Files.writeString(moved, "package org.example;\n");
+        Files.writeString(deleted, "package org.example;\n");
+        var saved = FileStore.snapshot;
+        FileStore.snapshot = new WorkspaceSnapshot(Files.createTempDirectory("snapshots"));
+        try {
+            FileStore.setWorkspaceRoots(Set.of(root));
+            FileStore.setWorkspaceRoots(Set.of());
+            Files.writeString(moved, "package org.example.moved;\n");
+            Files.delete(deleted);
+            Files.writeString(created, "package org.example;\n");
+            // The snapshot is used as-is until it has been checked
+            FileStore.setWorkspaceRoots(Set.of(root));
+            assertThat(FileStore.list("org.example"), containsInAnyOrder(moved, deleted));
+            FileStore.awaitValidation();
+            assertThat(FileStore.list("org.example"), contains(created));
+            assertThat(FileStore.list("org.example.moved"), contains(moved));
+        } finally {
+            FileStore.snapshot = saved;
+        }
+    }
+
+    @Test
+    public void externalChangesBatch() throws IOException {
+        var root = Files.createTempDirectory("external-changes").toAbsolutePath().normalize();
+        var dir = Files.createDirectories(root.resolve("src/org/example"));
+        var moved = dir.resolve("Moved.java");
+        var deleted = dir.resolve("Deleted.java");
+        var created = dir.resolve("Created.java");
+        Files.writeString(moved, "package org.example;\n");
+        Files.writeString(deleted, "package org.example;\n");
+        FileStore.setWorkspaceRoots(Set.of(root));
+        // Like a branch switch, which changes several files at once
+        Files.writeString(moved, "package org.example.moved;\n");
+        Files.delete(deleted);
+        Files.writeString(created, "package org.example.created;\n");
+        var packages = FileStore.externalChanges(List.of(moved, created), List.of(deleted));
+        assertThat(packages, containsInAnyOrder("org.example", "org.example.moved", "org.example.created"));
+        assertThat(FileStore.list("org.example"), empty());
+        assertThat(FileStore.list("org.example.moved"), contains(moved));
+        assertThat(FileStore.list("org.example.created"), contains(created));
+    }
+
+    @Test
+    public void readWhileChanging() throws Exception {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        var done = new AtomicBoolean();
+        var pool = Executors.newSingleThreadExecutor();
+        var reader =
+                pool.submit(
+                        () -> {
+                            var reads = 0;
+                            while (!done.get()) {
+                                for (var f : FileStore.all()) {
+                                    FileStore.modified(f);
+                                }
+                                FileStore.list("org.javacs.example");
+                                FileStore.sourceRoots();
+                                reads++;
+                            }
+                            return reads;
+                        });
+        try {
+            for (var i = 0; i < 1000; i++) {
+                FileStore.externalDelete(file);
+                FileStore.externalCreate(file);
+            }
+        } finally {
+            done.set(true);
+            pool.shutdown();
+        }
+        assertThat(reader.get(), greaterThan(0));
+        assertThat(FileStore.list("org.javacs.example"), hasItem(file));
+    }
+
+    @Test
+    public void readUnknownFileWhileChanging() throws Exception {
+        var dir = Files.createTempDirectory("read-unknown-file");
+        var file = dir.resolve("Unknown.java");
+        Files.writeString(file, "package org.example.unknown;\n");
+        var pool = Executors.newSingleThreadExecutor();
+        try {
+            // A writer holds the lock, but a reader can still look up a file it hasn't seen before
+            synchronized (FileStore.class) {
+                var read = pool.submit(() -> FileStore.packageName(file));
+                assertThat(read.get(10, TimeUnit.SECONDS), equalTo("org.example.unknown"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(FileStore.list("org.example.unknown"), contains(file));
+    }
+
+    @Test
+    public void editOpenDocument() {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class Goto {\n    void test() {\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            var change = new DidChangeTextDocumentParams();
+            change.textDocument.uri = file.toUri();
+            change.textDocument.version = 1;
+            // Rename the method
+            var rename = new TextDocumentContentChangeEvent();
+            rename.range = new Range(new Position(1, 9), new Position(1, 13));
+            rename.text = "run";
+            change.contentChanges.add(rename);
+            // Replace the body, which spans lines, using positions after the first edit
+            var body = new TextDocumentContentChangeEvent();
+            body.range = new Range(new Position(1, 16), new Position(2, 5));
+            body.text = "}";
+            change.contentChanges.add(body);
+            FileStore.change(change);
+            assertThat(FileStore.contents(file), equalTo("class Goto {\n    void run() {}\n}\n"));
+            assertThat(FileStore.lastEdit(file), equalTo(29L));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void lastEdit() {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class Goto {\n    void test() {\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            assertThat(FileStore.lastEdit(file), equalTo(-1L));
+            var change = new DidChangeTextDocumentParams();
+            change.textDocument.uri = file.toUri();
+            change.textDocument.version = 1;
+            var edit = new TextDocumentContentChangeEvent();
+            edit.range = new Range(new Position(2, 0), new Position(2, 0));
+            edit.rangeLength = 0;
+            edit.text = "        x";
+            change.contentChanges.add(edit);
+            FileStore.change(change);
+            assertThat(FileStore.lastEdit(file), equalTo(31L));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
 }
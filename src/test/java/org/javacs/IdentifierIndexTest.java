@@ -0,0 +1,73 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdentifierIndexTest {
+    private Path dir, foo, bar;
+
+    @Before
+    public void createWorkspace() throws IOException {
+        var root = Files.createTempDirectory("identifier-index");
+        dir = root.resolve("src/org/example");
+        Files.createDirectories(dir);
+        foo = dir.resolve("Foo.java");
+        bar = dir.resolve("Bar.java");
+        Files.writeString(foo, "package org.example;\nclass Foo {\n    int count = 42;\n}\n");
+        Files.writeString(bar, "package org.example;\nclass Bar {\n    int total = new Foo().count;\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(root));
+    }
+
+    @After
+    public void restoreWorkspace() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    @Test
+    public void findWords() {
+        var index = new IdentifierIndex();
+        assertThat(index.filesContaining("count"), contains(bar, foo));
+        assertThat(index.filesContaining("count", "total"), contains(bar));
+        assertThat(index.filesContaining("org", "example", "Foo"), contains(bar, foo));
+        assertThat(index.filesContaining("coun"), empty());
+        assertThat(index.filesContaining("42"), empty());
+        assertThat(index.contains(foo, "Foo"), equalTo(true));
+        assertThat(index.contains(foo, "Bar"), equalTo(false));
+    }
+
+    @Test
+    public void updateChangedFiles() throws IOException {
+        var index = new IdentifierIndex();
+        assertThat(index.filesContaining("total"), contains(bar));
+        Files.writeString(bar, "package org.example;\nclass Bar {\n    int sum;\n}\n");
+        Files.setLastModifiedTime(bar, FileTime.from(Instant.now().plusSeconds(10)));
+        FileStore.externalChange(bar);
+        assertThat(index.filesContaining("total"), empty());
+        assertThat(index.filesContaining("sum"), contains(bar));
+        assertThat(index.filesContaining("count"), contains(foo));
+    }
+
+    @Test
+    public void forgetDeletedFiles() throws IOException {
+        var index = new IdentifierIndex();
+        while (index.update())
+            ;
+        Files.delete(foo);
+        FileStore.externalDelete(foo);
+        assertThat(index.filesContaining("count"), contains(bar));
+        var baz = dir.resolve("Baz.java");
+        Files.writeString(baz, "package org.example;\nclass Baz {\n    int count;\n}\n");
+        FileStore.externalCreate(baz);
+        assertThat(index.filesContaining("count"), contains(bar, baz));
+    }
+}
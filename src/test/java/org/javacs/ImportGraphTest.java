@@ -0,0 +1,114 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImportGraphTest {
+    private Path foo, bar;
+
+    @Before
+    public void createWorkspace() throws IOException {
+        var root = Files.createTempDirectory("import-graph");
+        var dir = root.resolve("src/org/example");
+        Files.createDirectories(dir);
+        foo = dir.resolve("Foo.java");
+        bar = dir.resolve("Bar.java");
+        Files.writeString(foo, "package org.example;\nimport java.util.List;\nimport java.io.*;\nclass Foo {}\n");
+        Files.writeString(bar, "package org.example;\nimport java.util.List;\nclass Bar {}\n");
+        FileStore.setWorkspaceRoots(Set.of(root));
+    }
+
+    @After
+    public void restoreWorkspace() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    @Test
+    public void bothDirections() {
+        var graph = new ImportGraph();
+        assertThat(graph.imports(foo), contains("java.util.List", "java.io.*"));
+        assertThat(graph.importers("java.util.List"), containsInAnyOrder(foo, bar));
+        assertThat(graph.importers("java.io.*"), contains(foo));
+        assertThat(graph.countImporters("java.util.List"), equalTo(2));
+        assertThat(graph.allImports(), containsInAnyOrder("java.util.List", "java.io.*"));
+    }
+
+    @Test
+    public void updateChangedFiles() throws IOException {
+        var graph = new ImportGraph();
+        assertThat(graph.importers("java.util.List"), containsInAnyOrder(foo, bar));
+        Files.writeString(bar, "package org.example;\nimport java.util.Map;\nclass Bar {}\n");
+        Files.setLastModifiedTime(bar, FileTime.from(Instant.now().plusSeconds(10)));
+        FileStore.externalChange(bar);
+        assertThat(graph.importers("java.util.List"), contains(foo));
+        assertThat(graph.importers("java.util.Map"), contains(bar));
+        Files.delete(foo);
+        FileStore.externalDelete(foo);
+        assertThat(graph.importers("java.util.List"), empty());
+        assertThat(graph.allImports(), contains("java.util.Map"));
+    }
+
+    @Test
+    public void packageDependents() throws IOException {
+        var root = Files.createTempDirectory("package-graph");
+        var sources =
+                Map.of(
+                        "a/A.java", "package a;\nclass A {}\n",
+                        "b/B.java", "package b;\nimport a.A;\nclass B {}\n",
+                        "c/C.java", "package c;\nimport b.*;\nclass C {}\n",
+                        "d/D.java", "package d;\nimport static a.A.NAME;\nclass D {}\n",
+                        "e/E.java", "package e;\nimport java.util.List;\nclass E {}\n");
+        for (var name : sources.keySet()) {
+            var file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, sources.get(name));
+        }
+        FileStore.setWorkspaceRoots(Set.of(root));
+        var graph = new ImportGraph();
+        assertThat(graph.dependents(List.of("a")), containsInAnyOrder("a", "b", "c", "d"));
+        assertThat(graph.dependents(List.of("b")), containsInAnyOrder("b", "c"));
+        assertThat(graph.dependents(List.of("e")), contains("e"));
+        // Static imports don't count as imported names
+        assertThat(graph.importers("a.A.NAME"), empty());
+    }
+
+    @Test
+    public void readWholeHeader() throws IOException {
+        var file = foo.resolveSibling("Header.java");
+        var header =
+                "/*\n"
+                        + " * Licensed under the Apache License; see the class path exception.\n"
+                        + " */\n"
+                        + "package org.example;\n"
+                        + "\n"
+                        + "import com.x.classes.Registry; // the class registry\n"
+                        + "import java.util.Map;\n"
+                        + "import static   java.util.stream.Collectors /* */ .toList;\n"
+                        + "import java.util\n"
+                        + "    .Set;\n"
+                        + "\n"
+                        + "/** The class that imports everything. */\n"
+                        + "@SuppressWarnings({\"unchecked\"})\n"
+                        + "class Header {\n"
+                        + "    String s = \"import a.b.C;\";\n"
+                        + "}\n"
+                        + "import not.Real;\n";
+        Files.writeString(file, header);
+        FileStore.externalCreate(file);
+        var graph = new ImportGraph();
+        assertThat(graph.imports(file), contains("com.x.classes.Registry", "java.util.Map", "java.util.Set"));
+        assertThat(graph.packages(file), containsInAnyOrder("com.x.classes", "java.util", "java.util.stream"));
+    }
+}
@@ -1,20 +1,27 @@
 package org.javacs;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import com.sun.source.tree.MethodInvocationTree;
 import com.sun.source.util.*;
+import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.util.Context;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -54,6 +61,46 @@ public class IncrementalCompileTest implements TaskListener, DiagnosticListener<
         }
     }
 
+    @Test
+    public void taskPoolReplacesWornOutContexts() throws InterruptedException {
+        var pool = new ReusableCompiler(1);
+        pool.maxTasksPerContext = 2;
+        var contexts = new HashSet<Context>();
+        // The replacement is warmed up in the background, so the worn-out context keeps serving tasks until it's ready
+        for (var i = 0; i < 100 && contexts.size() < 2; i++) {
+            var files = compiler.getStandardFileManager(this, null, Charset.defaultCharset()).getJavaFileObjects(foo);
+            Supplier<JavaFileManager> newFileManager =
+                    () -> compiler.getStandardFileManager(this, null, Charset.defaultCharset());
+            try (var borrow = pool.getTask(newFileManager, this, options, null, files)) {
+                checkInvokeType(borrow.task);
+                contexts.add(((JavacTaskImpl) borrow.task).getContext());
+            }
+            Thread.sleep(100);
+        }
+        assertThat(contexts, hasSize(2));
+    }
+
+    @Test
+    public void taskPoolReclaimsBeforeGrowing() {
+        var pool = new ReusableCompiler(1);
+        Supplier<JavaFileManager> newFileManager =
+                () -> compiler.getStandardFileManager(this, null, Charset.defaultCharset());
+        var files = compiler.getStandardFileManager(this, null, Charset.defaultCharset()).getJavaFileObjects(foo);
+        var first = pool.getTask(newFileManager, this, options, null, files);
+        checkInvokeType(first.task);
+        var firstContext = ((JavacTaskImpl) first.task).getContext();
+        // Like CompileCache.evictIdle, give back a context this thread is holding but no longer needs
+        pool.onExhausted(
+                () -> {
+                    first.close();
+                    return true;
+                });
+        try (var second = pool.getTask(newFileManager, this, options, null, files)) {
+            checkInvokeType(second.task);
+            assertThat(((JavacTaskImpl) second.task).getContext(), sameInstance(firstContext));
+        }
+    }
+
     private void checkInvokeType(JavacTask task) {
         task.addTaskListener(this);
         try {
@@ -3,8 +3,13 @@ package org.javacs;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import com.sun.source.util.JavacTask;
+import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.javacs.lsp.*;
 import org.junit.*;
 
 public class JavaCompilerServiceTest {
@@ -23,4 +28,272 @@ public class JavaCompilerServiceTest {
     public void setWorkspaceRoot() {
         FileStore.setWorkspaceRoots(Set.of(simpleProjectSrc()));
     }
+
+    @Test
+    public void switchingFilesReusesCompile() {
+        var hello = simpleProjectSrc().resolve("HelloWorld.java");
+        var error = simpleProjectSrc().resolve("HelloError.java");
+        JavacTask first;
+        try (var task = compiler.compile(hello)) {
+            first = task.task;
+        }
+        try (var task = compiler.compile(error)) {
+            assertThat(task.task, not(sameInstance(first)));
+        }
+        try (var task = compiler.compile(hello)) {
+            assertThat(task.task, sameInstance(first));
+        }
+    }
+
+    @Test
+    public void cachedCompileKeepsItsOwnDiagnostics() {
+        var hello = simpleProjectSrc().resolve("HelloWorld.java");
+        var error = simpleProjectSrc().resolve("HelloError.java");
+        try (var task = compiler.compile(error)) {
+            assertThat(task.diagnostics, not(empty()));
+        }
+        try (var task = compiler.compile(hello)) {
+            assertThat(task.diagnostics, empty());
+        }
+        try (var task = compiler.compile(error)) {
+            assertThat(task.diagnostics, not(empty()));
+        }
+    }
+
+    @Test
+    public void compileDifferentFilesConcurrently() throws Exception {
+        var hello = simpleProjectSrc().resolve("HelloWorld.java");
+        var error = simpleProjectSrc().resolve("HelloError.java");
+        var start = new CountDownLatch(2);
+        Callable<Integer> compileHello =
+                () -> {
+                    start.countDown();
+                    start.await();
+                    try (var task = compiler.compile(hello)) {
+                        return task.diagnostics.size();
+                    }
+                };
+        Callable<Integer> compileError =
+                () -> {
+                    start.countDown();
+                    start.await();
+                    try (var task = compiler.compile(error)) {
+                        return task.diagnostics.size();
+                    }
+                };
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            var helloDiags = pool.submit(compileHello);
+            var errorDiags = pool.submit(compileError);
+            assertThat(helloDiags.get(), equalTo(0));
+            assertThat(errorDiags.get(), greaterThan(0));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void generateClassCache() throws IOException {
+        var dir = Files.createTempDirectory("class-cache");
+        compiler.classCache = new ClassOutputCache(dir, CompileBatch.options(Set.of(), Set.of()), new ImportGraph());
+        while (compiler.generateClassCache()) {}
+        var hello = simpleProjectSrc().resolve("HelloWorld.java");
+        var error = simpleProjectSrc().resolve("HelloError.java");
+        assertTrue(compiler.classCache.has(hello));
+        assertFalse(compiler.classCache.has(error));
+        try (var task = compiler.compile(hello)) {
+            assertThat(task.diagnostics, empty());
+        }
+        try (var task = compiler.compile(error)) {
+            assertThat(task.diagnostics, not(empty()));
+        }
+    }
+
+    @Test
+    public void compileFileWithManyErrorsPartially() {
+        var file = simpleProjectSrc().resolve("PastedHalfAClass.java").toAbsolutePath();
+        var contents = new StringBuilder("class PastedHalfAClass {\n    void pasted() {\n");
+        for (var i = 0; i < CompileBatch.MANY_ERRORS; i++) {
+            contents.append("        int = ;\n");
+        }
+        contents.append("    }\n}\n");
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = contents.toString();
+        FileStore.open(open);
+        try (var task = compiler.compileForErrors(file)) {
+            assertTrue(task.partial);
+            // Every parse error is still reported, once
+            var lines = new HashSet<Long>();
+            for (var d : task.diagnostics) {
+                assertThat(d.getKind(), equalTo(javax.tools.Diagnostic.Kind.ERROR));
+                lines.add(d.getLineNumber());
+            }
+            assertThat(lines, hasSize(CompileBatch.MANY_ERRORS));
+            assertThat(task.diagnostics, hasSize(lessThanOrEqualTo(2 * CompileBatch.MANY_ERRORS)));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void compileFileWithFewErrorsFully() {
+        try (var task = compiler.compileForErrors(simpleProjectSrc().resolve("HelloError.java"))) {
+            assertFalse(task.partial);
+            assertThat(task.diagnostics, not(empty()));
+        }
+    }
+
+    @Test
+    public void attributeProfileSkipsFlowAnalysis() {
+        var file = simpleProjectSrc().resolve("MissingReturn.java").toAbsolutePath();
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class MissingReturn {\n    int test() {\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            try (var task = compiler.compile(CompileProfile.ATTRIBUTE, file)) {
+                assertThat(task.diagnostics, empty());
+            }
+            try (var task = compiler.compile(CompileProfile.FULL, file)) {
+                assertThat(task.diagnostics, hasSize(1));
+                assertThat(task.diagnostics.get(0).getCode(), equalTo("compiler.err.missing.ret.stmt"));
+            }
+            try (var task = compiler.compile(CompileProfile.ATTRIBUTE, file)) {
+                assertThat("reuses the full compile", task.diagnostics, hasSize(1));
+            }
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void timeCompilePhases() {
+        var file = simpleProjectSrc().resolve("TimedCompile.java").toAbsolutePath();
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class TimedCompile {\n    int test() {\n        return 1;\n    }\n}\n";
+        FileStore.open(open);
+        CompileTimings.start("test");
+        try {
+            compiler.compile(file).close();
+        } finally {
+            CompileTimings.finish();
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+        var timings = CompileTimings.recent().get(0);
+        assertThat(timings.method, equalTo("test"));
+        assertThat(timings.phaseMs.keySet(), hasItems("PARSE", "ENTER", "ANALYZE"));
+        var files = new ArrayList<String>();
+        for (var f : timings.files) {
+            files.add(f.file);
+        }
+        assertThat(files, hasItem(endsWith("TimedCompile.java")));
+    }
+
+    @Test
+    public void precompileOpenDocuments() {
+        var file = simpleProjectSrc().resolve("Precompiled.java").toAbsolutePath();
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class Precompiled {\n    int test() {\n        return 1;\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            assertTrue(compiler.precompileOpenDocument());
+            while (compiler.precompileOpenDocument()) {}
+            // Warm requests don't run javac at all, so they don't record any timings
+            CompileTimings.start("precompiled");
+            try {
+                compiler.compileForErrors(file).close();
+                compiler.compile(CompileProfile.FULL, file).close();
+                compiler.compile(CompileProfile.ATTRIBUTE, file).close();
+            } finally {
+                CompileTimings.finish();
+            }
+            var recent = CompileTimings.recent();
+            assertTrue(recent.isEmpty() || !recent.get(0).method.equals("precompiled"));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void cancelPrecompile() {
+        var file = simpleProjectSrc().resolve("CancelledPrecompile.java").toAbsolutePath();
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.text = "class CancelledPrecompile {\n    int test() {\n        return 1;\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            // Let javac start, then cancel at the next event, like a request arriving in the middle of the compile
+            var checks = new AtomicInteger();
+            compiler.cancelIdleWork = () -> checks.incrementAndGet() > 1;
+            while (compiler.precompileOpenDocument()) {
+                if (checks.get() > 1) break;
+            }
+            assertThat(checks.get(), greaterThan(1));
+            // The cancelled document is precompiled again later
+            compiler.cancelIdleWork = () -> false;
+            var again = false;
+            while (compiler.precompileOpenDocument()) {
+                again = true;
+            }
+            assertTrue(again);
+            try (var task = compiler.compile(file)) {
+                assertThat(task.diagnostics, empty());
+            }
+        } finally {
+            compiler.cancelIdleWork = () -> false;
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void findMemberReferencesInPackagesThatCanSeeThem() throws IOException {
+        var root = Files.createTempDirectory("layered-project");
+        var sources =
+                Map.of(
+                        "a/A.java",
+                        "package a;\npublic class A {\n    public void shared() {}\n    void local() {}\n"
+                                + "    private void hidden() {}\n}\n",
+                        "a/A2.java", "package a;\nclass A2 {\n    void g(A x) {\n        x.local();\n    }\n}\n",
+                        "b/B.java",
+                        "package b;\nimport a.A;\npublic class B {\n    public A a() { return new A(); }\n}\n",
+                        "c/C.java",
+                        "package c;\nimport b.B;\nclass C {\n    void f() { new B().a().shared(); }\n"
+                                + "    void local() {}\n    void hidden() {}\n}\n",
+                        "d/D.java", "package d;\nclass D {\n    void shared() {}\n}\n",
+                        "e/E.java", "package e;\nclass E {\n    void f() { new a.A().shared(); }\n}\n");
+        for (var name : sources.keySet()) {
+            var file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, sources.get(name));
+        }
+        FileStore.setWorkspaceRoots(Set.of(root));
+        var names = new ArrayList<String>();
+        for (var f : compiler.findMemberReferences("a.A", "shared")) {
+            names.add(f.getFileName().toString());
+        }
+        assertThat(names, containsInAnyOrder("A.java", "C.java", "E.java"));
+        names.clear();
+        for (var f : compiler.findMemberReferences("a.A", "local")) {
+            names.add(f.getFileName().toString());
+        }
+        assertThat(names, containsInAnyOrder("A.java", "A2.java"));
+        names.clear();
+        for (var f : compiler.findMemberReferences("a.A", "hidden")) {
+            names.add(f.getFileName().toString());
+        }
+        assertThat(names, contains("A.java"));
+    }
 }
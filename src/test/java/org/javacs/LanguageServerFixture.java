@@ -53,6 +53,8 @@ public class LanguageServerFixture {
         var init = new InitializeParams();
 
         init.rootUri = workspaceRoot.toUri();
+        var capabilities = "{\"workspace\": {\"didChangeWatchedFiles\": {\"dynamicRegistration\": true}}}";
+        init.capabilities = JsonHelper.GSON.fromJson(capabilities, JsonElement.class);
         server.initialize(init);
         server.initialized();
 
@@ -0,0 +1,65 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.javacs.lsp.Position;
+import org.junit.Test;
+
+public class LineIndexTest {
+
+    @Test
+    public void offset() {
+        var lines = LineIndex.of("class Foo {\n    void test() {}\n}");
+        assertThat(lines.lineCount(), equalTo(3));
+        assertThat(lines.offset(0, 0), equalTo(0));
+        assertThat(lines.offset(1, 4), equalTo(16));
+        assertThat(lines.offset(2, 0), equalTo(31));
+    }
+
+    @Test
+    public void clampOffsets() {
+        var lines = LineIndex.of("class Foo {\n}\n");
+        // Past the end of a line stops before the newline
+        assertThat(lines.offset(0, 100), equalTo(11));
+        // Past the last line is the end of the text
+        assertThat(lines.offset(100, 0), equalTo(14));
+        assertThat(lines.offset(-1, 0), equalTo(0));
+    }
+
+    @Test
+    public void lineTerminators() {
+        var lines = LineIndex.of("a\r\nb\rc\nd");
+        assertThat(lines.lineCount(), equalTo(4));
+        assertThat(lines.offset(1, 0), equalTo(3));
+        assertThat(lines.offset(2, 0), equalTo(5));
+        assertThat(lines.offset(3, 0), equalTo(7));
+        // Clamping never lands between \r and \n
+        assertThat(lines.offset(0, 5), equalTo(1));
+        assertThat(position(lines.position(4)), equalTo("1:1"));
+    }
+
+    @Test
+    public void utf16Columns() {
+        // The emoji is two UTF-16 code units, which LSP counts as two characters
+        var text = "String s = \"😀\"; int x;";
+        var lines = LineIndex.of(text);
+        var x = text.indexOf('x');
+        assertThat(position(lines.position(x)), equalTo("0:" + x));
+        assertThat(lines.offset(0, x), equalTo(x));
+    }
+
+    @Test
+    public void position() {
+        var lines = LineIndex.of("class Foo {\n    void test() {}\n}");
+        assertThat(position(lines.position(0)), equalTo("0:0"));
+        assertThat(position(lines.position(11)), equalTo("0:11"));
+        assertThat(position(lines.position(12)), equalTo("1:0"));
+        assertThat(position(lines.position(16)), equalTo("1:4"));
+        assertThat(position(lines.position(32)), equalTo("2:1"));
+    }
+
+    private String position(Position p) {
+        return p.line + ":" + p.character;
+    }
+}
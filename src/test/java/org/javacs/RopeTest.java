@@ -0,0 +1,95 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class RopeTest {
+
+    @Test
+    public void replace() {
+        var rope = Rope.of("class Foo {\n}\n");
+        rope = rope.replace(6, 9, "Bar");
+        rope = rope.replace(11, 11, "\n    void test() {}");
+        assertThat(rope.toString(), equalTo("class Bar {\n    void test() {}\n}\n"));
+        assertThat(rope.lineCount(), equalTo(4));
+    }
+
+    @Test
+    public void offset() {
+        var rope = Rope.of("class Foo {\n    void test() {}\n}");
+        assertThat(rope.offset(0, 0), equalTo(0));
+        assertThat(rope.offset(1, 4), equalTo(16));
+        // Past the end of a line
+        assertThat(rope.offset(0, 100), equalTo(11));
+        // Past the end of the text
+        assertThat(rope.offset(100, 0), equalTo(rope.length()));
+    }
+
+    @Test
+    public void lineTerminators() {
+        var rope = Rope.of("a\r\nb\rc\nd");
+        assertThat(rope.lineCount(), equalTo(4));
+        assertThat(rope.offset(1, 0), equalTo(3));
+        assertThat(rope.offset(2, 0), equalTo(5));
+        assertThat(rope.offset(3, 0), equalTo(7));
+        // Clamping never lands between \r and \n
+        assertThat(rope.offset(0, 5), equalTo(1));
+        // A \r\n split between chunks is still one line break
+        var split = Rope.of("a\r").replace(2, 2, "\nb");
+        assertThat(split.lineCount(), equalTo(2));
+        assertThat(split.offset(1, 0), equalTo(3));
+    }
+
+    @Test
+    public void sameLinesAsLineIndex() {
+        var random = new Random(0);
+        var breaks = new String[] {"\n", "\r", "\r\n"};
+        var expected = new StringBuilder();
+        for (var i = 0; i < 2_000; i++) {
+            expected.append("    int field").append(i).append(";").append(breaks[i % 3]);
+        }
+        var rope = Rope.of(expected.toString());
+        for (var i = 0; i < 5_000; i++) {
+            var start = random.nextInt(expected.length() + 1);
+            var end = Math.min(expected.length(), start + random.nextInt(20));
+            var text = random.nextInt(5) == 0 ? breaks[random.nextInt(3)] : "x" + i;
+            expected.replace(start, end, text);
+            rope = rope.replace(start, end, text);
+        }
+        var lines = LineIndex.of(expected);
+        assertThat(rope.lineCount(), equalTo(lines.lineCount()));
+        for (var line = 0; line < lines.lineCount(); line++) {
+            assertThat(rope.offset(line, 0), equalTo(lines.offset(line, 0)));
+            assertThat(rope.offset(line, 1_000), equalTo(lines.offset(line, 1_000)));
+        }
+    }
+
+    @Test
+    public void manyRandomEdits() {
+        var random = new Random(0);
+        var expected = new StringBuilder();
+        for (var i = 0; i < 5_000; i++) {
+            expected.append("    int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        var rope = Rope.of(expected.toString());
+        for (var i = 0; i < 10_000; i++) {
+            var start = random.nextInt(expected.length() + 1);
+            var end = Math.min(expected.length(), start + random.nextInt(20));
+            var text = random.nextInt(10) == 0 ? "\n" : "x" + i;
+            expected.replace(start, end, text);
+            rope = rope.replace(start, end, text);
+        }
+        assertThat(rope.toString(), equalTo(expected.toString()));
+        var expectedLine = 0;
+        for (var i = 0; i < expected.length(); i++) {
+            if (i == 0 || expected.charAt(i - 1) == '\n') {
+                assertThat(rope.lineStart(expectedLine), equalTo(i));
+                expectedLine++;
+            }
+            assertThat(rope.charAt(i), equalTo(expected.charAt(i)));
+        }
+    }
+}
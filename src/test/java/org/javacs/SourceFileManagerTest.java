@@ -84,5 +84,25 @@ public class SourceFileManagerTest {
         assertTrue(header.isPublic);
     }
 
+    @Test
+    public void pruneImplicitSources() throws IOException {
+        var gotoFile = src.resolve("org/javacs/example/Goto.java").toAbsolutePath();
+        sourceFileManager.pruneImplicitSources = true;
+        sourceFileManager.setBatchRoots(List.of());
+        var implicit =
+                sourceFileManager.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.Goto", JavaFileObject.Kind.SOURCE);
+        var implicitText = implicit.getCharContent(true).toString();
+        assertThat(implicitText, containsString("public void test() {"));
+        assertThat(implicitText, not(containsString("Object local;")));
+        assertThat(implicitText.length(), equalTo(FileStore.contents(gotoFile).length()));
+
+        sourceFileManager.setBatchRoots(List.of(new SourceFileObject(gotoFile)));
+        var root =
+                sourceFileManager.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.Goto", JavaFileObject.Kind.SOURCE);
+        assertThat(root.getCharContent(true).toString(), containsString("Object local;"));
+    }
+
     private static final Logger LOG = Logger.getLogger("main");
 }
@@ -0,0 +1,147 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.javacs.lsp.SymbolInformation;
+import org.javacs.lsp.SymbolKind;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymbolIndexTest {
+    private Path root, saved;
+
+    @Before
+    public void createWorkspace() throws IOException {
+        root = Files.createTempDirectory("symbol-index");
+        saved = Files.createTempDirectory("symbol-index-saved").resolve("symbols");
+        var dir = root.resolve("src/org/example");
+        Files.createDirectories(dir);
+        Files.writeString(
+                dir.resolve("FooBar.java"),
+                "package org.example;\nclass FooBar {\n    int fooBarCount;\n    void fooBar() {}\n}\n");
+        Files.writeString(dir.resolve("Foo.java"), "package org.example;\nclass Foo {\n    void bar() {}\n}\n");
+        Files.writeString(
+                dir.resolve("FileBuffer.java"), "package org.example;\nclass FileBuffer {\n    int count;\n}\n");
+        FileStore.setWorkspaceRoots(Set.of(root));
+    }
+
+    @After
+    public void restoreWorkspace() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    private static List<String> names(List<SymbolInformation> symbols) {
+        return symbols.stream().map(s -> s.name).collect(Collectors.toList());
+    }
+
+    @Test
+    public void bestMatchesFirst() {
+        var index = new SymbolIndex(saved);
+        assertThat(names(index.search("Foo", 50)), contains("Foo", "FooBar", "fooBar", "fooBarCount"));
+        assertThat(names(index.search("fb", 50)), contains("FooBar", "FileBuffer", "fooBar", "fooBarCount"));
+        assertThat(names(index.search("fb", 2)), contains("FooBar", "FileBuffer"));
+        assertThat(names(index.search("count", 50)), contains("count", "fooBarCount"));
+    }
+
+    @Test
+    public void containerAndLocation() {
+        var index = new SymbolIndex(saved);
+        var found = index.search("bar", 50);
+        var bar = found.get(0);
+        assertThat(bar.name, equalTo("bar"));
+        assertThat(bar.containerName, equalTo("Foo"));
+        assertThat(bar.location.uri, equalTo(root.resolve("src/org/example/Foo.java").toUri()));
+        assertThat(bar.location.range.start.line, equalTo(2));
+    }
+
+    @Test
+    public void updateChangedFiles() throws IOException {
+        var index = new SymbolIndex(saved);
+        assertThat(names(index.search("Buffer", 50)), contains("FileBuffer"));
+        var file = root.resolve("src/org/example/FileBuffer.java");
+        Files.writeString(file, "package org.example;\nclass FileBuffer {\n    int lineBuffer;\n}\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+        FileStore.externalChange(file);
+        assertThat(names(index.search("Buffer", 50)), contains("FileBuffer", "lineBuffer"));
+        assertThat(names(index.search("count", 50)), contains("fooBarCount"));
+    }
+
+    @Test
+    public void saveAndLoad() {
+        var index = new SymbolIndex(saved);
+        while (index.update())
+            ;
+        assertThat(Files.exists(saved), equalTo(true));
+        var loaded = new SymbolIndex(saved);
+        assertThat(names(loaded.search("fb", 50)), equalTo(names(index.search("fb", 50))));
+        var bar = loaded.search("bar", 50).get(0);
+        assertThat(bar.containerName, equalTo("Foo"));
+        assertThat(bar.location.range.start.line, equalTo(2));
+    }
+
+    @Test
+    public void refineQuery() throws IOException {
+        var index = new SymbolIndex(saved);
+        assertThat(names(index.search("f", 50)), contains("fooBar", "fooBarCount", "Foo", "FooBar", "FileBuffer"));
+        assertThat(names(index.search("fo", 50)), contains("fooBar", "fooBarCount", "Foo", "FooBar"));
+        // A file that changes between keystrokes is searched again
+        var file = root.resolve("src/org/example/FileBuffer.java");
+        Files.writeString(file, "package org.example;\nclass FileBuffer {\n    int fooCount;\n}\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+        FileStore.externalChange(file);
+        assertThat(names(index.search("foc", 50)), contains("fooCount", "fooBarCount"));
+        // A query that doesn't extend the last one starts over
+        assertThat(names(index.search("bar", 50)), contains("bar", "FooBar", "fooBar", "fooBarCount"));
+    }
+
+    @Test
+    public void indexRecords() throws IOException {
+        // Records only parse on JDK 16 and later
+        assumeTrue(Runtime.version().feature() >= 16);
+        var file = root.resolve("src/org/example/Point.java");
+        Files.writeString(file, "package org.example;\nrecord Point(int x, int y) {}\n");
+        FileStore.externalCreate(file);
+        var index = new SymbolIndex(saved);
+        while (index.update())
+            ;
+        var found = index.search("Point", 50);
+        assertThat(names(found), contains("Point"));
+        assertThat(found.get(0).kind, equalTo(SymbolKind.Class));
+    }
+
+    @Test
+    public void streamResultsFromUnindexedFiles() throws IOException {
+        var generated = Files.createTempDirectory("symbol-index-generated");
+        var dir = generated.resolve("src/org/example/generated");
+        Files.createDirectories(dir);
+        for (var i = 0; i < 200; i++) {
+            var name = "Generated" + i;
+            Files.writeString(dir.resolve(name + ".java"), "package org.example.generated;\nclass " + name + " {}\n");
+        }
+        FileStore.setWorkspaceRoots(Set.of(root, generated));
+        var index = new SymbolIndex(saved);
+        var batches = new ArrayList<List<String>>();
+        index.search("Generated1", 5, batch -> batches.add(names(batch)));
+        var all = new ArrayList<String>();
+        for (var b : batches) {
+            assertThat(b, not(empty()));
+            all.addAll(b);
+        }
+        assertThat(all, hasSize(5));
+        assertThat(all, everyItem(startsWith("Generated1")));
+        assertThat(names(index.search("Generated12", 50)), hasItems("Generated12", "Generated120", "Generated129"));
+        assertThat(names(index.search("Generated12", 50)), hasSize(11));
+    }
+}
@@ -0,0 +1,60 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.javacs.lsp.FileChangeType;
+import org.javacs.lsp.FileEvent;
+import org.junit.Test;
+
+public class WorkspaceWatcherTest {
+
+    @Test
+    public void coalesceChanges() throws IOException, InterruptedException {
+        var root = Files.createTempDirectory("workspace-watcher");
+        var existing = root.resolve("Existing.java");
+        Files.writeString(existing, "class Existing {}");
+        try (var watcher = new WorkspaceWatcher(List.of(root), f -> f.toString().endsWith(".java"))) {
+            // A file that is created and then written is one creation
+            var created = root.resolve("Created.java");
+            Files.writeString(created, "class Created {}");
+            Files.writeString(created, "class Created { int x; }");
+            Files.writeString(existing, "class Existing { int x; }");
+            // Files in a new directory are found even if they were created before the directory was watched
+            var dir = Files.createDirectories(root.resolve("org/example"));
+            var nested = dir.resolve("Nested.java");
+            Files.writeString(nested, "package org.example; class Nested {}");
+            // Files that aren't watched are ignored
+            Files.writeString(root.resolve("README.md"), "# Readme");
+            var events = waitForEvents(watcher);
+            assertThat(events, hasEntry(created, FileChangeType.Created));
+            assertThat(events, hasEntry(existing, FileChangeType.Changed));
+            assertThat(events, hasEntry(nested, FileChangeType.Created));
+            assertThat(events.keySet(), not(hasItem(root.resolve("README.md"))));
+
+            Files.delete(created);
+            assertThat(waitForEvents(watcher), equalTo(Map.of(created, FileChangeType.Deleted)));
+        }
+    }
+
+    /** Poll watcher until it hands out a batch of events */
+    private Map<Path, Integer> waitForEvents(WorkspaceWatcher watcher) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 20_000;
+        while (System.currentTimeMillis() < deadline) {
+            var events = watcher.poll();
+            if (!events.isEmpty()) {
+                var byFile = new HashMap<Path, Integer>();
+                for (FileEvent e : events) {
+                    byFile.put(Path.of(e.uri), e.type);
+                }
+                return byFile;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("No events");
+    }
+}
@@ -22,6 +22,7 @@ public class LanguageServerTest {
     LanguageServer mockServer;
     Thread main;
     CompletableFuture<Void> receivedInitialize = new CompletableFuture<>();
+    CompletableFuture<Void> calledPeriodicWork = new CompletableFuture<>();
 
     class TestLanguageServer extends LanguageServer {
         @Override
@@ -29,6 +30,12 @@ public class LanguageServerTest {
             receivedInitialize.complete(null);
             return new InitializeResult();
         }
+
+        @Override
+        public boolean doPeriodicWork() {
+            calledPeriodicWork.complete(null);
+            return false;
+        }
     }
 
     static {
@@ -94,4 +101,15 @@ public class LanguageServerTest {
         main.join(10_000);
         assertThat("Main thread has quit", main.isAlive(), equalTo(false));
     }
+
+    @Test
+    public void periodicWorkWhileClientIsQuiet()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+        // No more messages arrive, but the server still gets to check for changes
+        calledPeriodicWork.get(10, TimeUnit.SECONDS);
+        sendToServer(exitMessage);
+        main.join(10_000);
+    }
 }